@@ -0,0 +1,94 @@
+package TCP.bench;
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import TCP.BinaryPacket;
+import TCP.Checksum;
+import TCP.UChannel;
+
+/**
+ * How well each Checksum algorithm detects the errors UChannel introduces: each
+ * operation encodes a BinaryPacket of printable text, replaces each byte of the frame
+ * with a random printable character with probability pmunge, and decodes it.
+ * Besides the time per operation, the Counts columns report the frames actually
+ * altered ("munged") and those of them that still passed the checksum ("missed").
+ * @author rms
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumDetectionBenchmark {
+	private static final int LINES = 1024;
+
+	@Param({"internet", "crc32c", "adler32"})
+	String algorithm;
+	@Param({"0.01", "0.05", "0.2"})
+	double pmunge;
+
+	String[] lines = new String[LINES];
+	BinaryPacket out = new BinaryPacket(), in = new BinaryPacket();
+	ByteBuffer frame = ByteBuffer.allocate(UChannel.MAX_FRAME);
+	SplittableRandom rnd;
+	int next;
+
+	/**
+	 * Frames altered and frames altered yet accepted, per iteration
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Counts {
+		public long munged, missed;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			munged = missed = 0;
+		}
+	}
+
+	@Setup
+	public void setup() {
+		rnd = new SplittableRandom(7);
+		for (int i = 0; i < LINES; i++) lines[i] = Lines.line(20 + rnd.nextInt(60), i);
+		out.use(Checksum.forName(algorithm));
+	}
+
+	@Benchmark
+	public boolean mungeAndDecode(Counts counts) {
+		frame.clear();
+		out.set(next, 0, lines[next++ & (LINES - 1)]).encode(frame);
+		frame.flip();
+		boolean changed = false;
+		for (int i = 0; i < frame.limit(); i++) {
+			if (rnd.nextDouble() < pmunge) {
+				byte b = (byte)(32 + rnd.nextInt(94));
+				changed |= frame.get(i) != b;
+				frame.put(i, b);
+			}
+		}
+		boolean corrupt = in.decode(frame).isCorrupt();
+		if (changed) {
+			counts.munged++;
+			if (!corrupt) counts.missed++;
+		}
+		return corrupt;
+	}
+}
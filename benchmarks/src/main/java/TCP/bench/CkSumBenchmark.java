@@ -0,0 +1,84 @@
+package TCP.bench;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import TCP.Checksum;
+import TCP.CkSum;
+
+/**
+ * Cost of the checksums: CkSum's text form as used by the rdt1.0 - rdt3.0 packets,
+ * and each Checksum algorithm over the bytes of a BinaryPacket frame.
+ * @author rms
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CkSumBenchmark {
+	/**
+	 * A line and its text checksum; CkSum has no algorithm to vary
+	 */
+	@State(Scope.Thread)
+	public static class Text {
+		@Param({"16", "80", "1000"})
+		int length;
+
+		String line, check;
+
+		@Setup
+		public void setup() {
+			line = Lines.line(length, 1);
+			check = CkSum.genCheck(line);
+		}
+	}
+
+	/**
+	 * The bytes of a line and the algorithm computing their checksum
+	 */
+	@State(Scope.Thread)
+	public static class Bytes {
+		@Param({"16", "80", "1000"})
+		int length;
+		@Param({"internet", "crc32c", "adler32"})
+		String algorithm;
+
+		ByteBuffer bytes;
+		Checksum checksum;
+
+		@Setup
+		public void setup() {
+			bytes = ByteBuffer.wrap(Lines.line(length, 1).getBytes(StandardCharsets.UTF_8));
+			checksum = Checksum.forName(algorithm);
+		}
+	}
+
+	@Benchmark
+	public String genCheck(Text text) {
+		return CkSum.genCheck(text.line);
+	}
+
+	@Benchmark
+	public boolean checkString(Text text) {
+		return CkSum.checkString(text.line, text.check);
+	}
+
+	@Benchmark
+	public int compute(Bytes bytes) {
+		return bytes.checksum.compute(bytes.bytes, 0, bytes.bytes.limit());
+	}
+}
@@ -0,0 +1,23 @@
+package TCP.bench;
+import java.util.SplittableRandom;
+
+/**
+ * Reproducible printable text for benchmark payloads
+ * @author rms
+ *
+ */
+final class Lines {
+	private Lines() {}
+
+	/**
+	 * @param length	number of characters
+	 * @param seed		seed; equal seeds give equal lines
+	 * @return			line of printable ASCII characters
+	 */
+	static String line(int length, long seed) {
+		SplittableRandom rnd = new SplittableRandom(seed);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) sb.append((char)(32 + rnd.nextInt(95)));
+		return sb.toString();
+	}
+}
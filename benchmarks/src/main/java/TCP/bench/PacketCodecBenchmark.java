@@ -0,0 +1,128 @@
+package TCP.bench;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import TCP.BinaryPacket;
+import TCP.Checksum;
+import TCP.RDT10;
+import TCP.RDT20;
+import TCP.RDT21;
+import TCP.RDT22;
+import TCP.RDT30;
+import TCP.UChannel;
+
+/**
+ * Cost of building and serializing each protocol's packet, and of deserializing
+ * the result, which includes checking its checksum as the receivers do.
+ * The binary BinaryPacket codec used by RDTGBN and RDTSR is measured alongside.
+ * @author rms
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PacketCodecBenchmark {
+	@Param({"80", "1000"})
+	int length;
+	@Param({"internet", "crc32c"})
+	String algorithm;
+
+	String line;
+	Checksum checksum;
+	String rdt10, rdt20, rdt21, rdt22, rdt30;
+	BinaryPacket packet = new BinaryPacket(), decoded = new BinaryPacket();
+	ByteBuffer frame = ByteBuffer.allocate(UChannel.MAX_FRAME), encoded;
+
+	@Setup
+	public void setup() {
+		line = Lines.line(length, 2);
+		checksum = Checksum.forName(algorithm);
+		rdt10 = new RDT10.Packet(line, checksum).serialize();
+		rdt20 = new RDT20.Packet(line, checksum).serialize();
+		rdt21 = new RDT21.Packet(line, "1", checksum).serialize();
+		rdt22 = new RDT22.Packet(line, "1", checksum).serialize();
+		rdt30 = new RDT30.Packet(line, "1", checksum).serialize();
+		packet.use(checksum).set(1, 0, line);
+		encoded = ByteBuffer.allocate(UChannel.MAX_FRAME);
+		packet.encode(encoded);
+		encoded.flip();
+	}
+
+	@Benchmark
+	public String rdt10Serialize() {
+		return new RDT10.Packet(line, checksum).serialize();
+	}
+
+	@Benchmark
+	public boolean rdt10Deserialize() {
+		return RDT10.Packet.deserialize(rdt10).isCorrupt();
+	}
+
+	@Benchmark
+	public String rdt20Serialize() {
+		return new RDT20.Packet(line, checksum).serialize();
+	}
+
+	@Benchmark
+	public boolean rdt20Deserialize() {
+		return RDT20.Packet.deserialize(rdt20).isCorrupt();
+	}
+
+	@Benchmark
+	public String rdt21Serialize() {
+		return new RDT21.Packet(line, "1", checksum).serialize();
+	}
+
+	@Benchmark
+	public boolean rdt21Deserialize() {
+		return RDT21.Packet.deserialize(rdt21).isCorrupt();
+	}
+
+	@Benchmark
+	public String rdt22Serialize() {
+		return new RDT22.Packet(line, "1", checksum).serialize();
+	}
+
+	@Benchmark
+	public boolean rdt22Deserialize() {
+		return RDT22.Packet.deserialize(rdt22).isCorrupt();
+	}
+
+	@Benchmark
+	public String rdt30Serialize() {
+		return new RDT30.Packet(line, "1", checksum).serialize();
+	}
+
+	@Benchmark
+	public boolean rdt30Deserialize() {
+		return RDT30.Packet.deserialize(rdt30).isCorrupt();
+	}
+
+	@Benchmark
+	public int binaryEncode() {
+		frame.clear();
+		packet.set(1, 0, line).encode(frame);
+		return frame.position();
+	}
+
+	@Benchmark
+	public boolean binaryDecode() {
+		encoded.rewind();
+		return decoded.decode(encoded).isCorrupt();
+	}
+}
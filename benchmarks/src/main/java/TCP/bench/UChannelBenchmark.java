@@ -0,0 +1,68 @@
+package TCP.bench;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import TCP.Channel;
+import TCP.RingChannel;
+import TCP.UChannel;
+
+/**
+ * End-to-end latency of one packet through a lossless, error-free channel: a UChannel,
+ * where send, the relay thread's hop and receive each cross a pipe, or a RingChannel.
+ * SampleTime reports the percentiles.
+ * @author rms
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class UChannelBenchmark {
+	@Param({"16", "256", "1400"})
+	int length;
+	@Param({"uchannel", "ring"})
+	String impl;
+
+	Channel channel;
+	String line;
+	ByteBuffer frame, dst = ByteBuffer.allocate(UChannel.MAX_FRAME);
+
+	@Setup
+	public void setup() throws IOException {
+		channel = impl.equals("ring") ? new RingChannel(0.0, 0.0) : new UChannel(0.0, 0.0);
+		Thread relay = new Thread(channel, "UChannel");
+		relay.setDaemon(true);
+		relay.start();
+		line = Lines.line(length, 3);
+		frame = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	public String sendReceiveString() throws IOException {
+		channel.send(line);
+		return channel.receive();
+	}
+
+	@Benchmark
+	public int sendReceiveFrame() throws IOException {
+		frame.rewind();
+		channel.send(frame);
+		return channel.receive(dst);
+	}
+}
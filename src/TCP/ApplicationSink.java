@@ -0,0 +1,18 @@
+package TCP;
+/**
+ * Receives the data a simulation's receiver delivers to the application
+ * @author rms
+ *
+ */
+public interface ApplicationSink {
+	/**
+	 * Prints delivered data, as the simulators always have
+	 */
+	ApplicationSink CONSOLE = dat -> System.out.println("-->        "+dat);
+
+	/**
+	 * Called by the receiver thread once for each delivery
+	 * @param dat	data delivered
+	 */
+	void deliver(String dat);
+}
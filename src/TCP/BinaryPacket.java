@@ -0,0 +1,225 @@
+package TCP;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable packet with a binary wire format, for protocols that move packets as
+ * ByteBuffer frames. Encoding and decoding reuse the packet's own payload array,
+ * so a packet object can carry any number of packets without further allocation.
+ * <pre>
+ *  0        4        8       9
+ *  +--------+--------+-------+--------------+
+ *  | cksum  | seqnum | flags | data ...     |
+ *  +--------+--------+-------+--------------+
+ * </pre>
+ * cksum is the checksum of every byte after it, computed by the algorithm whose
+ * Checksum id is in the high 4 bits of flags; all fields are big-endian.
+ * A packet flagged PIGGYBACK has a 4-byte acknum between flags and data.
+ * The frame length supplied by the channel gives the length of data.
+ * @author rms
+ *
+ */
+public class BinaryPacket implements TracedPacket {
+	/**
+	 * Number of header bytes before data
+	 */
+	public static final int HEADER = 9;
+	/**
+	 * Largest data length that fits in a channel frame
+	 */
+	public static final int MAX_DATA = UChannel.MAX_FRAME - HEADER;
+	/**
+	 * Flag marking an acknowledgement
+	 */
+	public static final int ACK = 1;
+	/**
+	 * Flag marking a negative acknowledgement
+	 */
+	public static final int NAK = 2;
+	/**
+	 * Flag marking an acknowledgement that covers every packet up to its seqnum
+	 */
+	public static final int CUMULATIVE = 4;
+	/**
+	 * Flag marking a packet that also acknowledges every packet up to its acknum
+	 */
+	public static final int PIGGYBACK = 8;
+
+	int checksum, computed;
+	int seqnum, acknum;
+	int flags;
+	Checksum algorithm = Checksum.INTERNET;
+	byte[] data = new byte[256];
+	int length;
+	boolean malformed;
+
+	/**
+	 * Sets this packet's header and copies data into it
+	 * @param seqnum	sequence number
+	 * @param flags		combination of ACK, NAK, CUMULATIVE and PIGGYBACK, or 0 for a data packet
+	 * @param data		content; encoded as UTF-8
+	 * @return			this packet
+	 */
+	public BinaryPacket set(int seqnum, int flags, String data) {
+		this.seqnum = seqnum;
+		this.flags = flags;
+		length = 0;
+		ensureCapacity(data.length() * 3);
+		for (int i = 0; i < data.length(); i++) {
+			char c = data.charAt(i);
+			if (c < 0x80) {
+				this.data[length++] = (byte)c;
+			} else if (c < 0x800) {
+				this.data[length++] = (byte)(0xC0 | (c >>> 6));
+				this.data[length++] = (byte)(0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < data.length() && Character.isLowSurrogate(data.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, data.charAt(++i));
+				this.data[length++] = (byte)(0xF0 | (cp >>> 18));
+				this.data[length++] = (byte)(0x80 | ((cp >>> 12) & 0x3F));
+				this.data[length++] = (byte)(0x80 | ((cp >>> 6) & 0x3F));
+				this.data[length++] = (byte)(0x80 | (cp & 0x3F));
+			} else {
+				this.data[length++] = (byte)(0xE0 | (c >>> 12));
+				this.data[length++] = (byte)(0x80 | ((c >>> 6) & 0x3F));
+				this.data[length++] = (byte)(0x80 | (c & 0x3F));
+			}
+		}
+		if (length > MAX_DATA) throw new IllegalArgumentException("data of " + length + " bytes exceeds " + MAX_DATA);
+		malformed = false;
+		return this;
+	}
+	/**
+	 * Sets this packet's header with no data
+	 * @param seqnum	sequence number
+	 * @param flags		combination of ACK, NAK, CUMULATIVE and PIGGYBACK, or 0 for a data packet
+	 * @return			this packet
+	 */
+	public BinaryPacket set(int seqnum, int flags) {
+		this.seqnum = seqnum;
+		this.flags = flags;
+		length = 0;
+		malformed = false;
+		return this;
+	}
+	/**
+	 * Flags this packet PIGGYBACK, acknowledging every packet up to acknum
+	 * @param acknum	sequence number acknowledged
+	 * @return			this packet
+	 */
+	public BinaryPacket piggyback(int acknum) {
+		this.flags |= PIGGYBACK;
+		this.acknum = acknum;
+		return this;
+	}
+	/**
+	 * Selects the checksum algorithm used by encode
+	 * @param algorithm	checksum algorithm
+	 * @return			this packet
+	 */
+	public BinaryPacket use(Checksum algorithm) {
+		this.algorithm = algorithm;
+		return this;
+	}
+	/**
+	 * Makes this packet a copy of other
+	 * @param other	packet to copy
+	 * @return		this packet
+	 */
+	public BinaryPacket copyFrom(BinaryPacket other) {
+		ensureCapacity(other.length);
+		System.arraycopy(other.data, 0, data, 0, other.length);
+		length = other.length;
+		seqnum = other.seqnum;
+		acknum = other.acknum;
+		flags = other.flags;
+		algorithm = other.algorithm;
+		checksum = other.checksum;
+		computed = other.computed;
+		malformed = other.malformed;
+		return this;
+	}
+	/**
+	 * Writes this packet at buf's position, computing its checksum, and advances position past it
+	 * @param buf	buffer with at least HEADER + length bytes remaining, and 4 more if PIGGYBACK
+	 */
+	public void encode(ByteBuffer buf) {
+		int start = buf.position();
+		buf.putInt(0).putInt(seqnum).put((byte)((algorithm.id() << 4) | (flags & 0xF)));
+		if ((flags & PIGGYBACK) != 0) buf.putInt(acknum);
+		buf.put(data, 0, length);
+		checksum = computed = algorithm.compute(buf, start + 4, buf.position());
+		buf.putInt(start, checksum);
+	}
+	/**
+	 * Reads a packet occupying buf from position to limit into this packet
+	 * @param buf	buffer holding one frame; position is advanced to limit
+	 * @return		this packet
+	 */
+	public BinaryPacket decode(ByteBuffer buf) {
+		int start = buf.position(), end = buf.limit();
+		if (end - start < HEADER) {
+			malformed = true;
+			seqnum = flags = length = 0;
+			buf.position(end);
+			return this;
+		}
+		checksum = buf.getInt();
+		seqnum = buf.getInt();
+		int b = buf.get() & 0xFF;
+		flags = b & 0xF;
+		Checksum named = Checksum.forId(b >>> 4);
+		malformed = named == null;
+		if (named != null) algorithm = named;
+		if ((flags & PIGGYBACK) != 0) {
+			if (end - buf.position() < 4) {
+				malformed = true;
+				seqnum = flags = length = 0;
+				buf.position(end);
+				return this;
+			}
+			acknum = buf.getInt();
+		}
+		computed = malformed ? ~checksum : algorithm.compute(buf, start + 4, end);
+		length = end - buf.position();
+		ensureCapacity(length);
+		buf.get(data, 0, length);
+		return this;
+	}
+	/**
+	 * @return	true if checksum does not match content, or the frame was too short
+	 * 			or named an unknown checksum algorithm
+	 */
+	public boolean isCorrupt() {
+		return malformed || checksum != computed;
+	}
+	/**
+	 * @return	true if this packet carries the given flag
+	 * @param flag	ACK, NAK, CUMULATIVE or PIGGYBACK
+	 */
+	public boolean is(int flag) {
+		return (flags & flag) != 0;
+	}
+	public int getSeqnum() {return seqnum;}
+	/**
+	 * @return	sequence number acknowledged by a PIGGYBACK packet
+	 */
+	public int getAcknum() {return acknum;}
+	/**
+	 * @return	data decoded from UTF-8
+	 */
+	public String getData() {
+		return new String(data, 0, length, StandardCharsets.UTF_8);
+	}
+	private void ensureCapacity(int n) {
+		if (data.length < n) data = new byte[Math.max(n, 2 * data.length)];
+	}
+	@Override
+	/**
+	 * For printing in output log
+	 */
+	public String toString() {
+		String kind = is(ACK) ? "ACK" : is(NAK) ? "NAK" : getData();
+		String ack = is(PIGGYBACK) ? " ACK " + acknum : "";
+		return String.format("%s %d%s (%c%08x/%08x)", kind, seqnum, ack, malformed ? '?' : algorithm.tag(), checksum, computed);
+	}
+}
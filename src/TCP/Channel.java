@@ -1,5 +1,6 @@
 package TCP;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 /**
  * Interface for 1-directional channel using a pipe
  * @author rms
@@ -16,10 +17,31 @@ public interface Channel extends Runnable {
 	 * @param packet	Packet to be sent
 	 */
 	void send(PacketType packet);
+	/**
+	 * Send for a binary frame. Sends the bytes between position and limit as one packet
+	 * and advances position to limit; the buffer may be reused as soon as send returns.
+	 * @param frame	Frame to be sent
+	 */
+	void send(ByteBuffer frame);
 	/**
 	 * Receiver for sent data
 	 * @return	data sent by send method.
 	 * @throws IOException	from internal pipe
 	 */
 	String receive() throws IOException;
+	/**
+	 * Receiver for sent frames. Clears dst, copies the next frame into it and flips it,
+	 * so the frame lies between position and limit.
+	 * @param dst	buffer receiving the frame
+	 * @return		length of the frame, or -1 at end of stream
+	 * @throws IOException	from internal pipe
+	 */
+	int receive(ByteBuffer dst) throws IOException;
+	/**
+	 * @return	true if run must be given a thread of its own to move data;
+	 * 			false if send and receive do all the work and run returns at once
+	 */
+	default boolean needsThread() {
+		return true;
+	}
 }
@@ -0,0 +1,217 @@
+package TCP;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Error-detection algorithm used by packets. Every packet names the algorithm that
+ * produced its checksum, by tag in text packets and by id in BinaryPacket flags,
+ * so a receiver verifies each packet with the algorithm its sender chose.
+ * Text packets using the default INTERNET checksum carry no tag, so they and their
+ * traces are exactly as before the algorithms were pluggable; a field is tagged only
+ * when it starts with 'C' or 'A', which no lowercase hex digit can be.
+ * @author rms
+ *
+ */
+public interface Checksum {
+	/**
+	 * 16-bit Internet checksum of CkSum; the default
+	 */
+	Checksum INTERNET = new Internet();
+	/**
+	 * CRC-32C (Castagnoli), computed by java.util.zip.CRC32C
+	 */
+	Checksum CRC32C = new Crc32c();
+	/**
+	 * Adler-32, computed by java.util.zip.Adler32
+	 */
+	Checksum ADLER32 = new Adler32();
+
+	/**
+	 * @return	name accepted by forName
+	 */
+	String name();
+	/**
+	 * @return	character identifying this algorithm in traces and, except for INTERNET,
+	 * 			at the start of a text packet's checksum field
+	 */
+	char tag();
+	/**
+	 * @return	identifier of this algorithm in BinaryPacket flags, in [0, 15]
+	 */
+	int id();
+	/**
+	 * @return	number of hex digits in the text form of a checksum
+	 */
+	int width();
+	/**
+	 * Computes the checksum of a String, as carried by text packets
+	 * @param s	content
+	 * @return	checksum of s as width hex digits
+	 */
+	String genCheck(String s);
+	/**
+	 * Computes the checksum of a byte range
+	 * @param buf	buffer holding the bytes; its position and limit are not changed
+	 * @param from	index of first byte
+	 * @param to	index after last byte
+	 * @return		checksum; only the low 4 * width() bits are used
+	 */
+	int compute(ByteBuffer buf, int from, int to);
+
+	/**
+	 * @param s	content
+	 * @return	checksum field for a text packet: tag followed by genCheck(s); untagged for INTERNET
+	 */
+	default String field(String s) {
+		return tag() + genCheck(s);
+	}
+
+	/**
+	 * @param name	internet, crc32c or adler32
+	 * @return		algorithm with that name
+	 * @throws IllegalArgumentException	if name is not known
+	 */
+	static Checksum forName(String name) {
+		switch (name.toLowerCase()) {
+		case "internet": return INTERNET;
+		case "crc32c": return CRC32C;
+		case "adler32": return ADLER32;
+		}
+		throw new IllegalArgumentException("unknown checksum " + name);
+	}
+	/**
+	 * @param tag	tag from a text packet
+	 * @return		algorithm with that tag, or null if tag is unknown (e.g. munged)
+	 */
+	static Checksum forTag(char tag) {
+		switch (tag) {
+		case 'I': return INTERNET;
+		case 'C': return CRC32C;
+		case 'A': return ADLER32;
+		}
+		return null;
+	}
+	/**
+	 * @param id	identifier from BinaryPacket flags
+	 * @return		algorithm with that id, or null if id is unknown
+	 */
+	static Checksum forId(int id) {
+		switch (id) {
+		case 0: return INTERNET;
+		case 1: return CRC32C;
+		case 2: return ADLER32;
+		}
+		return null;
+	}
+	/**
+	 * @param field	text checksum field, or a serialized text packet beginning with one
+	 * @return		algorithm named by the field's tag, or INTERNET if it has none
+	 */
+	static Checksum ofField(String field) {
+		Checksum c = field.isEmpty() ? null : forTag(field.charAt(0));
+		return c == null || c == INTERNET ? INTERNET : c;
+	}
+	/**
+	 * @param serialized	serialized text packet beginning with a checksum field
+	 * @return				length of that field: 4 hex digits if untagged, as before tags existed
+	 */
+	static int fieldLength(String serialized) {
+		Checksum c = ofField(serialized);
+		return Math.min(serialized.length(), c == INTERNET ? c.width() : 1 + c.width());
+	}
+	/**
+	 * Determines if a checksum field is correct for given String
+	 * @param s		String to be tested
+	 * @param field	checksum field: hex digits, preceded by a tag unless INTERNET
+	 * @return		true if the field's checksum matches s
+	 */
+	static boolean verify(String s, String field) {
+		Checksum c = ofField(field);
+		if (c == INTERNET) return CkSum.checkString(s, field);
+		return c.genCheck(s).equalsIgnoreCase(field.substring(1));
+	}
+	/**
+	 * For printing in output log
+	 * @param s		String carried by a packet
+	 * @param field	the packet's checksum field
+	 * @return		field recomputed for s by the field's algorithm
+	 */
+	static String recompute(String s, String field) {
+		return ofField(field).field(s);
+	}
+
+	/**
+	 * Internet checksum; text packets keep the exact untagged 4-hex-digit CkSum values
+	 */
+	class Internet implements Checksum {
+		public String name() {return "internet";}
+		public char tag() {return 'I';}
+		public int id() {return 0;}
+		public int width() {return 4;}
+		public String genCheck(String s) {return CkSum.genCheck(s);}
+		@Override
+		public String field(String s) {return genCheck(s);}
+		public int compute(ByteBuffer buf, int from, int to) {return CkSum.genCheck(buf, from, to);}
+	}
+
+	/**
+	 * CRC-32C; detects all burst errors up to 32 bits and all odd numbers of bit errors.
+	 * java.util.zip.CRC32C is an intrinsic that uses the CPU's CRC32 instructions.
+	 */
+	class Crc32c implements Checksum {
+		private static final ThreadLocal<java.util.zip.CRC32C> CRC = ThreadLocal.withInitial(java.util.zip.CRC32C::new);
+		public String name() {return "crc32c";}
+		public char tag() {return 'C';}
+		public int id() {return 1;}
+		public int width() {return 8;}
+		public String genCheck(String s) {
+			java.util.zip.CRC32C crc = CRC.get();
+			crc.reset();
+			crc.update(s.getBytes(StandardCharsets.UTF_8));
+			return String.format("%08x", crc.getValue());
+		}
+		public int compute(ByteBuffer buf, int from, int to) {
+			java.util.zip.CRC32C crc = CRC.get();
+			crc.reset();
+			update(crc, buf, from, to);
+			return (int)crc.getValue();
+		}
+	}
+
+	/**
+	 * Adler-32; cheaper than a CRC but weak on short inputs
+	 */
+	class Adler32 implements Checksum {
+		private static final ThreadLocal<java.util.zip.Adler32> ADLER = ThreadLocal.withInitial(java.util.zip.Adler32::new);
+		public String name() {return "adler32";}
+		public char tag() {return 'A';}
+		public int id() {return 2;}
+		public int width() {return 8;}
+		public String genCheck(String s) {
+			java.util.zip.Adler32 adler = ADLER.get();
+			adler.reset();
+			adler.update(s.getBytes(StandardCharsets.UTF_8));
+			return String.format("%08x", adler.getValue());
+		}
+		public int compute(ByteBuffer buf, int from, int to) {
+			java.util.zip.Adler32 adler = ADLER.get();
+			adler.reset();
+			update(adler, buf, from, to);
+			return (int)adler.getValue();
+		}
+	}
+
+	/**
+	 * Feeds a byte range to a java.util.zip checksum without copying or allocating
+	 */
+	private static void update(java.util.zip.Checksum sum, ByteBuffer buf, int from, int to) {
+		if (buf.hasArray()) {
+			sum.update(buf.array(), buf.arrayOffset() + from, to - from);
+			return;
+		}
+		int position = buf.position(), limit = buf.limit();
+		buf.limit(to).position(from);
+		sum.update(buf);
+		buf.limit(limit).position(position);
+	}
+}
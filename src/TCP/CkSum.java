@@ -1,67 +1,93 @@
 package TCP;
+import java.nio.ByteBuffer;
 /**
  * Static class implementing CheckSum methods
- * 
+ *
  *
  */
 public class CkSum {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
 	/**
 	 * Generates a 4-hex-digit checksum
 	 * @param s		Input String requiring a checksum
 	 * @return		4-hex-digit String representing the checksum of s
 	 */
 	public static String genCheck(String s) {
-		String hex_value = new String();
-		// 'hex_value' will be used to store various hex values as a string
-		int x, i, checksum = 0;
-		// 'x' will be used for general purpose storage of integer values
-		// 'i' is used for loops
-		// 'checksum' will store the final checksum
-		for (i = 0; i < s.length() - 2; i = i + 2) {
-			x = (int) (s.charAt(i));
-			hex_value = Integer.toHexString(x);
-			x = (int) (s.charAt(i + 1));
-			hex_value = hex_value + Integer.toHexString(x);
-			// Extract two characters and get their hexadecimal ASCII values
-			x = Integer.parseInt(hex_value, 16);
-			// Convert the hex_value into int and store it
-			checksum += x;
-			// Add 'x' into 'checksum'
+		int checksum = checksum(s);
+		if ((checksum & ~0xFFFF) != 0) {
+			// Only reachable by the carry quirk described in checksum; keep its wide form
+			return Integer.toHexString(checksum);
 		}
-		if (s.length() % 2 == 0) {
-			// If number of characters is even, then repeat above loop's steps
-			// one more time.
-			x = (int) (s.charAt(i));
-			hex_value = Integer.toHexString(x);
-			x = (int) (s.charAt(i + 1));
-			hex_value = hex_value + Integer.toHexString(x);
-			x = Integer.parseInt(hex_value, 16);
-		} else {
-			// If number of characters is odd, last 2 digits will be 00.
-			x = (int) (s.charAt(i));
-			hex_value = "00" + Integer.toHexString(x);
-			x = Integer.parseInt(hex_value, 16);
+		return new String(new char[] {HEX[checksum >>> 12], HEX[(checksum >>> 8) & 0xF], HEX[(checksum >>> 4) & 0xF], HEX[checksum & 0xF]});
+	}
+	/**
+	 * Computes the checksum whose hex form genCheck returns.
+	 * Characters are summed in pairs, the first shifted left by the hex-digit width of the
+	 * second (8 bits for any character from 0x10 to 0xFF); a final odd character is added
+	 * unshifted. When the sum grows past 4 hex digits its leading digit is folded back in
+	 * and any digit past the fifth is dropped, as the original string arithmetic did, so
+	 * checksums of long strings match earlier traces exactly.
+	 * @param s		Input requiring a checksum
+	 * @return		1's complement of the folded sum; in [0, 0xFFFF] except when the
+	 * 				carry fold itself overflows 16 bits
+	 */
+	public static int checksum(CharSequence s) {
+		int n = s.length(), sum = 0, i;
+		for (i = 0; i + 1 < n; i += 2) {
+			int lo = s.charAt(i + 1);
+			sum += (s.charAt(i) << (4 * hexDigits(lo))) + lo;
 		}
-		checksum += x;
-		// Add the generated value of 'x' from the if-else case into 'checksum'
-		hex_value = Integer.toHexString(checksum);
-		// Convert into hexadecimal string
-		if (hex_value.length() > 4) {
-			// If a carry is generated, then we wrap the carry
-			int carry = Integer.parseInt(("" + hex_value.charAt(0)), 16);
-			// Get the value of the carry bit
-			hex_value = hex_value.substring(1, 5);
-			// Remove it from the string
-			checksum = Integer.parseInt(hex_value, 16);
-			// Convert it into an int
-			checksum += carry;
-			// Add it to the checksum
+		if (i < n) sum += s.charAt(i);
+		int digits = hexDigits(sum);
+		if (digits > 4) {
+			int carry = sum >>> (4 * (digits - 1));
+			sum = ((sum >>> (4 * (digits - 5))) & 0xFFFF) + carry;
 		}
-		checksum = generateComplement(checksum);
-		// Get the complement
-		String ans = Integer.toHexString(checksum);
-		while (ans.length() < 4) ans = "0"+ans;
-		return ans;
+		return generateComplement(sum);
+	}
+	/**
+	 * @param x	value
+	 * @return	number of digits in Integer.toHexString(x)
+	 */
+	private static int hexDigits(int x) {
+		return x == 0 ? 1 : (35 - Integer.numberOfLeadingZeros(x)) >> 2;
+	}
+	/**
+	 * Generates the 16-bit Internet checksum of a byte range
+	 * @param buf	buffer holding the bytes; its position and limit are not changed
+	 * @param from	index of first byte
+	 * @param to	index after last byte; at most 64K bytes past from
+	 * @return		1's complement of the 1's complement sum of the range, in [0, 0xFFFF]
+	 */
+	public static int genCheck(ByteBuffer buf, int from, int to) {
+		if (buf.hasArray()) return genCheck(buf.array(), buf.arrayOffset() + from, to - from);
+		int sum = 0, i;
+		for (i = from; i + 1 < to; i += 2) sum += ((buf.get(i) & 0xFF) << 8) | (buf.get(i + 1) & 0xFF);
+		if (i < to) sum += (buf.get(i) & 0xFF) << 8;
+		return fold(sum);
+	}
+	/**
+	 * Generates the 16-bit Internet checksum of a byte range
+	 * @param b		array holding the bytes
+	 * @param off	index of first byte
+	 * @param len	number of bytes; at most 64K
+	 * @return		1's complement of the 1's complement sum of the range, in [0, 0xFFFF]
+	 */
+	public static int genCheck(byte[] b, int off, int len) {
+		int sum = 0, i, end = off + len;
+		for (i = off; i + 1 < end; i += 2) sum += ((b[i] & 0xFF) << 8) | (b[i + 1] & 0xFF);
+		if (i < end) sum += (b[i] & 0xFF) << 8;
+		return fold(sum);
+	}
+	/**
+	 * Folds carries above bit 15 back into a 1's complement sum and complements it
+	 * @param sum	non-negative sum of 16-bit words
+	 * @return		16-bit checksum
+	 */
+	private static int fold(int sum) {
+		sum = (sum & 0xFFFF) + (sum >>> 16);
+		sum += sum >>> 16;
+		return ~sum & 0xFFFF;
 	}
 	/**
 	 * Determines if input checksum is correct for given String
@@ -70,17 +96,36 @@ public class CkSum {
 	 * @return				true if checksum_s is correct checksum for s; false otherwise
 	 */
 	public static boolean checkString(String s, String checksum_s) {
+		int checksum;
+		if (checksum_s.length() == 4) {
+			checksum = 0;
+			for (int i = 0; i < 4; i++) {
+				int d = Character.digit(checksum_s.charAt(i), 16);
+				if (d < 0) return parsedCheck(s, checksum_s);
+				checksum = (checksum << 4) | d;
+			}
+		} else {
+			return parsedCheck(s, checksum_s);
+		}
+		return checkString(s, checksum);
+	}
+	/**
+	 * Determines if input checksum is correct for given String
+	 * @param s			String to be tested
+	 * @param checksum	checksum as produced by checksum(s)
+	 * @return			true if checksum is correct checksum for s; false otherwise
+	 */
+	public static boolean checkString(CharSequence s, int checksum) {
+		int generated = checksum(s);
+		return (generated & ~0xFFFF) == 0 && generated == checksum;
+	}
+	/**
+	 * Slow path of checkString for checksum strings that are not 4 plain hex digits,
+	 * which Integer.parseInt may still accept (e.g. a leading sign)
+	 */
+	private static boolean parsedCheck(String s, String checksum_s) {
 		try {
-			int checksum = Integer.parseInt(checksum_s, 16);
-			int generated_checksum = Integer.parseInt(genCheck(s), 16);
-			// Calculate checksum of received data
-			generated_checksum = generateComplement(generated_checksum);
-			// 	Then get its complement, since generated checksum is complemented
-			int syndrome = generated_checksum + checksum;
-			// Syndrome is addition of the 2 checksums
-			syndrome = generateComplement(syndrome);
-			// It is complemented
-			return (syndrome == 0);
+			return checkString(s, Integer.parseInt(checksum_s, 16));
 		} catch (NumberFormatException e) {
 			return false;
 		}
@@ -92,7 +137,6 @@ public class CkSum {
 	 */
 
 	public static int generateComplement(int checksum) {
-		checksum = Integer.parseInt("FFFF", 16) - checksum;
-		return checksum;
+		return 0xFFFF - checksum;
 	}
-}
\ No newline at end of file
+}
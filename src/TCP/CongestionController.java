@@ -0,0 +1,153 @@
+package TCP;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Limits how many packets a windowed sender keeps in flight, from the acknowledgements,
+ * duplicate acknowledgements and timeouts it sees. The sender never has more than
+ * min(its window, window()) packets in flight. A controller belongs to one sender.
+ * @author rms
+ *
+ */
+public interface CongestionController {
+	/**
+	 * @return	number of packets the sender may have in flight; at least 1
+	 */
+	int window();
+	/**
+	 * New data was acknowledged
+	 * @param packets	number of packets newly acknowledged
+	 * @param inFlight	number of packets in flight before the acknowledgement
+	 */
+	void acked(int packets, int inFlight);
+	/**
+	 * An acknowledgement showed that the oldest packet in flight is still missing
+	 * @param inFlight	number of packets in flight
+	 * @return			true if the sender should retransmit now (fast retransmit)
+	 */
+	boolean duplicateAck(int inFlight);
+	/**
+	 * A retransmission timer expired
+	 * @param inFlight	number of packets in flight
+	 */
+	void timeout(int inFlight);
+
+	/**
+	 * @param name	reno
+	 * @return		new controller with that name
+	 * @throws IllegalArgumentException	if name is not known
+	 */
+	static CongestionController create(String name) {
+		switch (name.toLowerCase()) {
+		case "reno": return new Reno();
+		}
+		throw new IllegalArgumentException("unknown congestion controller " + name);
+	}
+
+	/**
+	 * TCP Reno, counted in packets (RFC 5681). cwnd starts at 1 and grows by 1 per
+	 * packet acknowledged in slow start, below ssthresh, and by 1 per window in
+	 * congestion avoidance. The third duplicate ACK halves the window, asks for a fast
+	 * retransmit and starts fast recovery, in which each further duplicate ACK inflates
+	 * cwnd by 1 until new data is acknowledged and cwnd deflates to ssthresh.
+	 * A timeout sets ssthresh to half the packets in flight and restarts slow start from 1.
+	 * cwnd grows only while the sender fills it, so a sender held back by its own
+	 * window does not build up a window it has never used.
+	 * Every loss event and every change of the whole-packet window is recorded, with its
+	 * time and cause, for writeTrace, which keeps the last TRACE of them as Metrics keeps
+	 * its series, so a long run costs no more memory than a short one.
+	 */
+	class Reno implements CongestionController {
+		/**
+		 * Largest number of changes kept for writeTrace
+		 */
+		public static final int TRACE = 10000;
+		private static final int DUPLICATES = 3;
+		private double cwnd = 1;
+		private int ssthresh = Integer.MAX_VALUE;
+		private int duplicates;
+		private boolean recovering;
+		private final long start = System.nanoTime();
+		private long[] times = new long[256];
+		private double[] cwnds = new double[256];
+		private int[] ssthreshes = new int[256];
+		private String[] causes = new String[256];
+		private long samples;
+
+		public synchronized int window() {
+			return Math.max(1, (int)cwnd);
+		}
+		public synchronized void acked(int packets, int inFlight) {
+			duplicates = 0;
+			if (recovering) {
+				recovering = false;
+				cwnd = ssthresh;
+				record("recovered");
+				return;
+			}
+			if (inFlight < window()) return;
+			int before = window();
+			for (int i = 0; i < packets; i++) cwnd += cwnd < ssthresh ? 1 : 1 / cwnd;
+			if (window() != before) record("ack");
+		}
+		public synchronized boolean duplicateAck(int inFlight) {
+			duplicates++;
+			if (duplicates == DUPLICATES && !recovering) {
+				ssthresh = Math.max(inFlight / 2, 2);
+				cwnd = ssthresh + DUPLICATES;
+				recovering = true;
+				record("fast_retransmit");
+				return true;
+			}
+			if (recovering) {
+				cwnd++;
+				record("dupack");
+			}
+			return false;
+		}
+		public synchronized void timeout(int inFlight) {
+			ssthresh = Math.max(inFlight / 2, 2);
+			cwnd = 1;
+			duplicates = 0;
+			recovering = false;
+			record("timeout");
+		}
+
+		/**
+		 * @return	current congestion window in packets
+		 */
+		public synchronized double getCwnd() {return cwnd;}
+		/**
+		 * @return	current slow start threshold in packets
+		 */
+		public synchronized int getSsthresh() {return ssthresh;}
+
+		private void record(String cause) {
+			if (samples == times.length && samples < TRACE) {
+				int n = (int)Math.min(2 * samples, TRACE);
+				times = Arrays.copyOf(times, n);
+				cwnds = Arrays.copyOf(cwnds, n);
+				ssthreshes = Arrays.copyOf(ssthreshes, n);
+				causes = Arrays.copyOf(causes, n);
+			}
+			int i = (int)(samples++ % TRACE);
+			times[i] = System.nanoTime() - start;
+			cwnds[i] = cwnd;
+			ssthreshes[i] = ssthresh;
+			causes[i] = cause;
+		}
+		/**
+		 * Writes the last TRACE recorded changes as CSV: ms,cwnd,ssthresh,cause, where ms
+		 * counts from the controller's creation and ssthresh is empty until the first loss
+		 * @param out	destination
+		 */
+		public synchronized void writeTrace(PrintStream out) {
+			out.println("ms,cwnd,ssthresh,cause");
+			for (long n = Math.max(0, samples - TRACE); n < samples; n++) {
+				int i = (int)(n % TRACE);
+				out.println(String.format("%.3f,%.3f,%s,%s", times[i] / 1e6, cwnds[i],
+						ssthreshes[i] == Integer.MAX_VALUE ? "" : Integer.toString(ssthreshes[i]), causes[i]));
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package TCP;
+/**
+ * Delayed acknowledgement policy of a receiver: instead of acknowledging each packet
+ * it delivers in order, the receiver sends one cumulative ACK for every `every` such
+ * packets, or `delay` milliseconds after the first packet not yet acknowledged,
+ * whichever comes first. Packets out of order, duplicates and corrupt packets are
+ * still answered at once, after flushing any ACK that is due, so the sender learns
+ * of a gap as soon as it would without delayed ACKs.
+ * flush sends the cumulative ACK; it runs on the receiver's thread or, when the delay
+ * expires, on the TimerService thread, so it must be safe to call from either.
+ * @author rms
+ *
+ */
+public class DelayedAck {
+	private final int every, delay;
+	private final TimerService timers;
+	private final Runnable flush;
+	private int pending;
+	private TimerService.Timeout timeout;
+	private boolean stopped;
+
+	/**
+	 * Constructs a DelayedAck
+	 * @param every		number of packets covered by one ACK
+	 * @param delay		longest time in milliseconds a delivered packet waits for its ACK
+	 * @param timers	scheduler for the delay
+	 * @param flush		sends an ACK covering every packet delivered in order so far
+	 */
+	public DelayedAck(int every, int delay, TimerService timers, Runnable flush) {
+		if (every < 1 || delay < 0) throw new IllegalArgumentException("need every >= 1 and delay >= 0");
+		this.every = every;
+		this.delay = delay;
+		this.timers = timers;
+		this.flush = flush;
+	}
+
+	/**
+	 * Notes a packet delivered in order; sends the ACK if it completes a group
+	 */
+	public synchronized void delivered() {
+		if (stopped) return;
+		if (++pending >= every) {
+			flush();
+			return;
+		}
+		if (timeout == null) timeout = timers.schedule(delay, this::expire);
+	}
+	/**
+	 * Sends the ACK now if any delivered packet is waiting for one
+	 * @return	true if an ACK was sent
+	 */
+	public synchronized boolean flush() {
+		if (timeout != null) {
+			timeout.cancel();
+			timeout = null;
+		}
+		if (stopped || pending == 0) return false;
+		pending = 0;
+		flush.run();
+		return true;
+	}
+	private synchronized void expire() {
+		timeout = null;
+		flush();
+	}
+	/**
+	 * Cancels the delay; no ACK is sent from now on
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		if (timeout != null) timeout.cancel();
+		timeout = null;
+	}
+}
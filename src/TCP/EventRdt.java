@@ -0,0 +1,419 @@
+package TCP;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Base class of the protocols run in virtual time on an EventSim. The simulators'
+ * FSMs block in receive on their own threads, so they cannot be driven by a virtual
+ * clock; these are event-driven versions of them, in which the arrival of a frame
+ * or the expiry of a timer is an event that calls the sender or receiver.
+ * They use the same BinaryPacket format, Checksum, RttEstimator and
+ * CongestionController as the threaded simulators.
+ * As in ProtocolHarness, the sender always has data: line i is sent as "i text",
+ * where text is corpus line i modulo its length, and every line delivered is checked
+ * against what was sent.
+ * To run:  EventRdt [-p RDT30,RDTGBN][-m pmunge,...][-l ploss,...][-t timeout,...][-s seed,...|first-last]
+ *                   [-n lines][-d seconds][-u threads][-f corpus][-o file.csv][-w window][-c checksum]
+ *                   [-b rate][-g delay][-j jitter][-q queue][-k reno]
+ * -b, -g, -j and -q describe each direction of the link; -g defaults to 10, so the
+ * round-trip time is 20 ms, and -t to 200. -d limits each run in virtual seconds.
+ * Runs the grid as SweepRunner does, by default 10,000 lines per run on one thread,
+ * and prints one CSV row per run, like ProtocolHarness with the seed and the number
+ * of events run; every column depends on the seed alone, so the output of a run can
+ * be compared with that of any other. The wall-clock time goes to standard error.
+ * @author rms
+ *
+ */
+public abstract class EventRdt {
+	/**
+	 * Protocols simulate can run
+	 */
+	static final List<String> PROTOCOLS = Arrays.asList("RDT30", "RDTGBN");
+	static final String HEADER = "protocol,pmunge,plost,timeout,seed,lines,delivered,seconds,lines_per_sec,sent,retransmissions,duplicates,undetected,p50_ms,p99_ms,events";
+	/**
+	 * Nanoseconds of virtual time run between checks for the end of a run
+	 */
+	private static final long SLICE = 10000000;
+
+	protected final EventSim sim;
+	protected final EventSim.Link forward, backward;
+	protected final int timeout;
+	/**
+	 * Checksum algorithm for packets created by sender and receiver
+	 */
+	protected Checksum checksum = Checksum.INTERNET;
+	/**
+	 * Congestion control for windowed senders; null for a fixed window
+	 */
+	protected CongestionController congestion = null;
+	/**
+	 * Encoding buffer shared by sender and receiver, which run on the same thread
+	 */
+	private final ByteBuffer frame = ByteBuffer.allocate(UChannel.MAX_FRAME);
+	private final String[] corpus;
+	private final int lines;
+	private final long[] readAt, latency;
+	private final boolean[] seen;
+	private int read, delivered;
+	private long finish = -1;
+	protected long retransmissions, duplicates, undetected;
+
+	/**
+	 * Constructs a protocol and connects it to its links
+	 * @param sim		simulation running the protocol
+	 * @param forward	link carrying data packets
+	 * @param backward	link carrying replies
+	 * @param timeout	sender timeout in milliseconds
+	 * @param corpus	lines sent, repeated as often as needed
+	 * @param lines		number of lines sent
+	 */
+	protected EventRdt(EventSim sim, EventSim.Link forward, EventSim.Link backward, int timeout, String[] corpus, int lines) {
+		this.sim = sim;
+		this.forward = forward;
+		this.backward = backward;
+		this.timeout = timeout;
+		this.corpus = corpus;
+		this.lines = lines;
+		readAt = new long[lines];
+		latency = new long[lines];
+		seen = new boolean[lines];
+		forward.connect(this::receiveData);
+		backward.connect(this::receiveReply);
+	}
+
+	/**
+	 * Sends the first packets
+	 */
+	public abstract void start();
+	/**
+	 * Receiver's handling of a frame arriving on forward
+	 * @param frame	frame received
+	 */
+	protected abstract void receiveData(ByteBuffer frame);
+	/**
+	 * Sender's handling of a frame arriving on backward
+	 * @param frame	frame received
+	 */
+	protected abstract void receiveReply(ByteBuffer frame);
+
+	/**
+	 * @return	next line for the sender, or null once every line has been read
+	 */
+	protected String nextLine() {
+		if (read == lines) return null;
+		readAt[read] = sim.now();
+		String dat = read + " " + corpus[read % corpus.length];
+		read++;
+		return dat;
+	}
+	/**
+	 * Checks data delivered by the receiver against the lines sent
+	 * @param dat	data delivered
+	 */
+	protected void deliverToApp(String dat) {
+		int space = dat.indexOf(' ');
+		int i;
+		try {
+			i = Integer.parseInt(dat.substring(0, space));
+		} catch (RuntimeException e) {
+			undetected++;
+			return;
+		}
+		if (i < 0 || i >= read || !dat.substring(space + 1).equals(corpus[i % corpus.length])) {
+			undetected++;
+		} else if (seen[i]) {
+			duplicates++;
+		} else {
+			seen[i] = true;
+			latency[delivered++] = sim.now() - readAt[i];
+			if (delivered == lines) finish = sim.now();
+		}
+	}
+	/**
+	 * Encodes packet and sends it on link
+	 */
+	protected void send(EventSim.Link link, BinaryPacket packet) {
+		frame.clear();
+		packet.use(checksum).encode(frame);
+		frame.flip();
+		link.send(frame);
+	}
+
+	/**
+	 * Runs the simulation until every line is delivered, nothing is left to happen or
+	 * limit nanoseconds of virtual time have passed
+	 * @param limit	virtual time limit in nanoseconds
+	 * @return		virtual nanoseconds from start to last delivery, or to the end of the run
+	 */
+	public long run(long limit) {
+		start();
+		while (delivered < lines && sim.now() < limit && sim.run(Math.min(limit, sim.now() + SLICE))) {}
+		return delivered == lines ? finish : sim.now();
+	}
+
+	/**
+	 * Event-driven rdt3.0: alternating-bit stop-and-wait with RDT30's adaptive timeout,
+	 * which starts at timeout, and its StaleReplies deciding which duplicate ACKs to
+	 * answer. Only the packet format and the virtual clock differ from RDT30.RSender30
+	 * and RReceiver30, so a fix to one belongs in the other.
+	 * @author rms
+	 *
+	 */
+	public static class StopAndWait extends EventRdt {
+		private final RttEstimator rtt;
+		private final BinaryPacket packet = new BinaryPacket(), reply = new BinaryPacket();
+		private final BinaryPacket data = new BinaryPacket(), ack = new BinaryPacket();
+		private int bit = 0, expected = 0;
+		private final StaleReplies stale = new StaleReplies();
+		private long sentAt;
+		private boolean waiting;
+		private EventSim.Event timer;
+
+		public StopAndWait(EventSim sim, EventSim.Link forward, EventSim.Link backward, int timeout, String[] corpus, int lines) {
+			super(sim, forward, backward, timeout, corpus, lines);
+			rtt = new RttEstimator(timeout, RDT30.MIN_RTO, RDT30.MAX_RTO);
+		}
+		@Override
+		public void start() {
+			sendNext();
+		}
+		private void sendNext() {
+			String dat = nextLine();
+			waiting = dat != null;
+			if (dat == null) return;
+			packet.set(bit, 0, dat);
+			stale.sent();
+			sentAt = sim.now();
+			transmit();
+		}
+		private void transmit() {
+			send(forward, packet);
+			if (timer != null) timer.cancel();
+			timer = sim.scheduleMillis(rtt.getRto(), this::expire);
+		}
+		private void expire() {
+			timer = null;
+			rtt.timedOut();
+			retransmit();
+		}
+		private void retransmit() {
+			retransmissions++;
+			stale.resent();
+			transmit();
+		}
+		@Override
+		protected void receiveReply(ByteBuffer frame) {
+			if (!waiting) return;
+			reply.decode(frame);
+			if (reply.isCorrupt()) {
+				stale.corrupt();
+			} else if (reply.is(BinaryPacket.ACK) && reply.seqnum == bit) {
+				timer.cancel();
+				timer = null;
+				if (stale.copies() == 1) rtt.sample((sim.now() - sentAt) / 1e6);
+				else rtt.acked();
+				stale.acked();
+				bit ^= 1;
+				sendNext();
+				return;
+			} else if (!stale.duplicate()) {
+				return;
+			}
+			retransmit();
+		}
+		@Override
+		protected void receiveData(ByteBuffer frame) {
+			data.decode(frame);
+			if (data.isCorrupt() || data.is(BinaryPacket.ACK)) {
+				reply(expected ^ 1);
+			} else if (data.seqnum != expected) {
+				reply(data.seqnum);
+			} else {
+				deliverToApp(data.getData());
+				reply(expected);
+				expected ^= 1;
+			}
+		}
+		private void reply(int seqnum) {
+			send(backward, ack.set(seqnum, BinaryPacket.ACK));
+		}
+	}
+
+	/**
+	 * Event-driven Go-Back-N, as RDTGBN: a window of packets in flight, cumulative ACKs
+	 * and one timer for the oldest unacknowledged packet. The sender's decisions are
+	 * those of RDTGBN's GoBackNWindow, and the receiver's those of RReceiverGBN without
+	 * delayed ACKs, so a fix to one belongs in the other.
+	 * @author rms
+	 *
+	 */
+	public static class GoBackN extends EventRdt {
+		private final GoBackNWindow sent;
+		private final BinaryPacket reply = new BinaryPacket(), data = new BinaryPacket(), ack = new BinaryPacket();
+		private int expected = 0;
+		private EventSim.Event timer;
+
+		public GoBackN(EventSim sim, EventSim.Link forward, EventSim.Link backward, int timeout, int window, String[] corpus, int lines) {
+			super(sim, forward, backward, timeout, corpus, lines);
+			sent = new GoBackNWindow(window, () -> congestion);
+		}
+		@Override
+		public void start() {
+			fill();
+		}
+		/**
+		 * Sends packets taken back by a timeout or fast retransmit, then new packets,
+		 * while the window allows
+		 */
+		private void fill() {
+			for (;;) {
+				boolean first = sent.isEmpty();
+				if (sent.canResend()) {
+					retransmissions++;
+					send(forward, sent.resend());
+				} else if (sent.canSend()) {
+					String dat = nextLine();
+					if (dat == null) return;
+					send(forward, sent.send(dat));
+				} else {
+					return;
+				}
+				if (first) arm();
+			}
+		}
+		private void arm() {
+			if (timer != null) timer.cancel();
+			timer = sim.scheduleMillis(timeout, this::expire);
+		}
+		private void disarm() {
+			if (timer != null) timer.cancel();
+			timer = null;
+		}
+		private void expire() {
+			timer = null;
+			sent.timeout();
+			fill();
+		}
+		@Override
+		protected void receiveReply(ByteBuffer frame) {
+			reply.decode(frame);
+			if (reply.isCorrupt() || !reply.is(BinaryPacket.ACK)) return;
+			switch (sent.ack(reply.seqnum)) {
+			case DUPLICATE:
+				return;
+			case FAST_RETRANSMIT:
+				disarm();
+				break;
+			case NEW:
+				if (sent.isEmpty()) disarm();
+				else arm();
+				break;
+			}
+			fill();
+		}
+		@Override
+		protected void receiveData(ByteBuffer frame) {
+			data.decode(frame);
+			if (!data.isCorrupt() && !data.is(BinaryPacket.ACK) && data.seqnum == expected) {
+				deliverToApp(data.getData());
+				expected++;
+			}
+			send(backward, ack.set(expected - 1, BinaryPacket.ACK));
+		}
+	}
+
+	/**
+	 * Outcome of one simulation; toString gives its CSV row, with the columns of HEADER
+	 * @author rms
+	 *
+	 */
+	public static class Result {
+		public final String protocol;
+		public final double pmunge, plost;
+		public final int timeout, lines, delivered;
+		public final long seed, sent, retransmissions, duplicates, undetected, events;
+		/**
+		 * Virtual seconds taken, and median and 99th percentile latency in virtual milliseconds
+		 */
+		public final double seconds, p50, p99;
+		/**
+		 * Wall-clock milliseconds the simulation took to run; not part of the CSV row,
+		 * which is the same on any machine
+		 */
+		public final double wall;
+
+		Result(String protocol, double pmunge, double plost, int timeout, long seed, EventRdt rdt, double seconds, long events, double wall) {
+			this.protocol = protocol;
+			this.pmunge = pmunge;
+			this.plost = plost;
+			this.timeout = timeout;
+			this.seed = seed;
+			this.lines = rdt.lines;
+			this.delivered = rdt.delivered;
+			this.seconds = seconds;
+			this.sent = rdt.forward.sent();
+			this.retransmissions = rdt.retransmissions;
+			this.duplicates = rdt.duplicates;
+			this.undetected = rdt.undetected;
+			long[] latency = Arrays.copyOf(rdt.latency, rdt.delivered);
+			Arrays.sort(latency);
+			this.p50 = ProtocolHarness.percentile(latency, 0.50) / 1e6;
+			this.p99 = ProtocolHarness.percentile(latency, 0.99) / 1e6;
+			this.events = events;
+			this.wall = wall;
+		}
+		/**
+		 * @return	lines delivered per virtual second
+		 */
+		public double linesPerSec() {
+			return delivered / seconds;
+		}
+		@Override
+		public String toString() {
+			return String.format("%s,%s,%s,%d,%d,%d,%d,%.3f,%.1f,%d,%d,%d,%d,%.3f,%.3f,%d", protocol, pmunge, plost, timeout, seed,
+					lines, delivered, seconds, linesPerSec(), sent, retransmissions, duplicates, undetected, p50, p99, events);
+		}
+	}
+
+	/**
+	 * Runs one simulation. Simulations share nothing, so any number may run at once.
+	 * @param protocol	RDT30 or RDTGBN
+	 * @param pmunge	probability of character errors
+	 * @param plost		probability of packet loss
+	 * @param timeout	sender timeout in milliseconds
+	 * @param seed		seed of the simulation's random choices
+	 * @param options	options returned by RTDBase.argParser
+	 * @param corpus	lines sent, repeated as often as needed
+	 * @param lines		number of lines sent
+	 * @param seconds	virtual time limit
+	 * @return			outcome of the simulation
+	 */
+	static Result simulate(String protocol, double pmunge, double plost, int timeout, long seed, Object[] options,
+			String[] corpus, int lines, double seconds) {
+		long wall = System.nanoTime();
+		EventSim sim = new EventSim(seed);
+		EventSim.Link forward = sim.new Link(pmunge, plost, (Long)options[9], (Double)options[10], (Double)options[11], (Integer)options[12]);
+		EventSim.Link backward = sim.new Link(pmunge, plost, (Long)options[9], (Double)options[10], (Double)options[11], (Integer)options[12]);
+		EventRdt rdt;
+		switch (protocol) {
+		case "RDT30": rdt = new StopAndWait(sim, forward, backward, timeout, corpus, lines); break;
+		case "RDTGBN": rdt = new GoBackN(sim, forward, backward, timeout, (Integer)options[4], corpus, lines); break;
+		default: throw new IllegalArgumentException(protocol);
+		}
+		rdt.checksum = (Checksum)options[5];
+		if (options[13] != null) rdt.congestion = CongestionController.create((String)options[13]);
+		double elapsed = rdt.run((long)(seconds * 1e9)) / 1e9;
+		return new Result(protocol, pmunge, plost, timeout, seed, rdt, elapsed, sim.processed(), (System.nanoTime() - wall) / 1e6);
+	}
+
+	/**
+	 * Runs every combination of the listed protocols, pmunge, ploss, timeouts and seeds
+	 * @param args	see class description
+	 * @throws IOException	if the corpus or output cannot be opened
+	 */
+	public static void main(String[] args) throws IOException {
+		SweepRunner.main("EventRdt", args, 10000, 1);
+	}
+}
@@ -0,0 +1,217 @@
+package TCP;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * Discrete-event simulation engine: a virtual clock and a queue of events ordered by
+ * time. run takes the earliest event, advances the clock to its time and runs its
+ * action, which may schedule further events; nothing sleeps, so simulated time
+ * passes as fast as the events can be processed.
+ * Events due at the same time run in the order they were scheduled, and all
+ * randomness comes from a SplittableRandom seeded at construction, so a run with the
+ * same seed and parameters always produces the same events.
+ * An EventSim and everything scheduled on it run on the thread calling run.
+ * @author rms
+ *
+ */
+public class EventSim {
+	private final PriorityQueue<Event> queue = new PriorityQueue<>();
+	private final SplittableRandom random;
+	private long now = 0, scheduled = 0, processed = 0;
+
+	/**
+	 * Constructs an EventSim with its clock at 0
+	 * @param seed	seed of all random choices in the simulation
+	 */
+	public EventSim(long seed) {
+		random = new SplittableRandom(seed);
+	}
+
+	/**
+	 * @return	virtual time in nanoseconds
+	 */
+	public long now() {
+		return now;
+	}
+	/**
+	 * @return	number of events run so far, not counting cancelled ones
+	 */
+	public long processed() {
+		return processed;
+	}
+	/**
+	 * @return	independent random source for one component, split from the simulation's
+	 */
+	public SplittableRandom split() {
+		return random.split();
+	}
+
+	/**
+	 * Schedules action to run after delay nanoseconds of virtual time
+	 * @param delay		nanoseconds from now; 0 runs action after the events already due now
+	 * @param action	action run on the thread calling run
+	 * @return			handle that can cancel the event
+	 */
+	public Event schedule(long delay, Runnable action) {
+		if (delay < 0) throw new IllegalArgumentException("delay must not be negative");
+		Event e = new Event(now + delay, scheduled++, action);
+		queue.add(e);
+		return e;
+	}
+	/**
+	 * Schedules action to run after delay milliseconds of virtual time
+	 * @param delay		milliseconds from now
+	 * @param action	action run on the thread calling run
+	 * @return			handle that can cancel the event
+	 */
+	public Event scheduleMillis(double delay, Runnable action) {
+		return schedule((long)(delay * 1e6), action);
+	}
+
+	/**
+	 * Runs events in time order until none is left or the next is later than until
+	 * @param until	virtual time in nanoseconds at which to stop
+	 * @return		true if events are left
+	 */
+	public boolean run(long until) {
+		for (;;) {
+			Event e = queue.peek();
+			if (e == null) return false;
+			if (e.time > until) {
+				now = until;
+				return true;
+			}
+			queue.poll();
+			if (e.cancelled) continue;
+			now = e.time;
+			processed++;
+			e.action.run();
+		}
+	}
+
+	/**
+	 * A scheduled action; cancelled events stay queued until their time and are then skipped
+	 * @author rms
+	 *
+	 */
+	public static class Event implements Comparable<Event> {
+		final long time, seq;
+		final Runnable action;
+		boolean cancelled;
+		private Event(long time, long seq, Runnable action) {
+			this.time = time;
+			this.seq = seq;
+			this.action = action;
+		}
+		/**
+		 * Keeps this event from running
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+		@Override
+		public int compareTo(Event o) {
+			return time != o.time ? Long.compare(time, o.time) : Long.compare(seq, o.seq);
+		}
+	}
+
+	/**
+	 * Receives the frames arriving over a Link
+	 */
+	public interface Node {
+		/**
+		 * Called at the virtual time a frame arrives
+		 * @param frame	frame content from position to limit; not kept by the link
+		 */
+		void receive(ByteBuffer frame);
+	}
+
+	/**
+	 * One direction of a link in virtual time, combining a UChannel's impairment and a
+	 * LinkModel's timing: frames are transmitted one at a time at a fixed rate, wait
+	 * in a bounded queue while the link is busy (tail drop), arrive after a propagation
+	 * delay plus random jitter without being reordered, and on arrival are impaired
+	 * as in a UChannel by an Impairment drawing from the simulation's random source.
+	 * @author rms
+	 *
+	 */
+	public class Link {
+		public final Impairment impairment;
+		public final long rate;
+		public final double delay, jitter;
+		public final int queue;
+		private final SplittableRandom random = split();
+		private final ArrayDeque<Long> departures = new ArrayDeque<>();
+		private long busyUntil, lastArrival;
+		private Node receiver;
+		private long sent, lost, dropped;
+
+		/**
+		 * Constructs a Link
+		 * @param pmunge	probability that a byte is altered
+		 * @param plose		probability that a frame is lost
+		 * @param rate		transmission rate in bytes per second; 0 for no limit
+		 * @param delay		propagation delay in milliseconds
+		 * @param jitter	largest extra delay in milliseconds
+		 * @param queue		largest number of queued frames; 0 for no limit
+		 */
+		public Link(double pmunge, double plose, long rate, double delay, double jitter, int queue) {
+			if (rate < 0 || delay < 0 || jitter < 0 || queue < 0) throw new IllegalArgumentException("link parameters must not be negative");
+			this.impairment = new Impairment(pmunge, plose, split());
+			this.rate = rate;
+			this.delay = delay;
+			this.jitter = jitter;
+			this.queue = queue;
+		}
+
+		/**
+		 * @param receiver	node to which frames arrive
+		 */
+		public void connect(Node receiver) {
+			this.receiver = receiver;
+		}
+		/**
+		 * Queues a copy of a frame for transmission, or drops it if the queue is full
+		 * @param frame	frame content from position to limit; may be reused as soon as send returns
+		 */
+		public void send(ByteBuffer frame) {
+			sent++;
+			while (!departures.isEmpty() && departures.peekFirst() <= now) departures.pollFirst();
+			if (queue > 0 && departures.size() >= queue) {
+				dropped++;
+				return;
+			}
+			byte[] copy = new byte[frame.remaining()];
+			frame.get(copy);
+			long done = Math.max(now, busyUntil) + (rate > 0 ? copy.length * 1000000000L / rate : 0);
+			busyUntil = done;
+			departures.addLast(done);
+			long arrival = Math.max(lastArrival, done + (long)((delay + (jitter > 0 ? jitter * random.nextDouble() : 0)) * 1e6));
+			lastArrival = arrival;
+			schedule(arrival - now, () -> arrive(copy));
+		}
+		private void arrive(byte[] frame) {
+			if (impairment.lose()) {
+				lost++;
+				return;
+			}
+			impairment.munge(frame, 0, frame.length);
+			receiver.receive(ByteBuffer.wrap(frame));
+		}
+
+		/**
+		 * @return	number of frames sent into the link
+		 */
+		public long sent() {return sent;}
+		/**
+		 * @return	number of frames lost
+		 */
+		public long lost() {return lost;}
+		/**
+		 * @return	number of frames dropped because the queue was full
+		 */
+		public long dropped() {return dropped;}
+	}
+}
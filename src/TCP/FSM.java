@@ -1,5 +1,6 @@
 package TCP;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 /**
  * Implements a finite state machine by repeatedly calling loop with the current state.
  * Next state is the value returned by loop
@@ -11,6 +12,10 @@ public abstract class FSM implements Runnable {
 	 *	Current state 
 	 */
 	private int myState = 0;
+	/**
+	 * Record of time spent in each state; null when not measured
+	 */
+	private volatile Metrics.Machine states = null;
 	/**
 	 * Repeated called by run with current state
 	 * @param myState	current state
@@ -19,11 +24,42 @@ public abstract class FSM implements Runnable {
 	 */
 	public abstract int loop(int myState) throws IOException;
 	/**
-	 * Used by thread to repeatedly call loop
+	 * Reports the states entered from now on to states
+	 * @param states	record of time spent in each state; null to stop measuring
+	 */
+	void setStates(Metrics.Machine states) {
+		this.states = states;
+	}
+	/**
+	 * Used by thread to repeatedly call loop, until the thread is interrupted.
+	 * Each change of state is a FlightEvents.FsmTransition lasting from the first call
+	 * of loop in the old state, e.g. the time spent blocked in receive there.
 	 */
 	public void run() {
+		Metrics.Machine states = this.states;
+		if (states != null) states.enter(myState);
 		try {
-			for (;;) myState = loop(myState);
+			FlightEvents.FsmTransition event = null;
+			while (!Thread.currentThread().isInterrupted()) {
+				if (event == null && FlightEvents.recording()) {
+					event = new FlightEvents.FsmTransition();
+					event.begin();
+				}
+				int next = loop(myState);
+				if (next != myState) {
+					if (event != null && event.shouldCommit()) {
+						event.machine = FlightEvents.name(this);
+						event.from = myState;
+						event.to = next;
+						event.commit();
+					}
+					event = null;
+					if (states != null) states.enter(next);
+				}
+				myState = next;
+			}
+		} catch (InterruptedIOException e) {
+			return;
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
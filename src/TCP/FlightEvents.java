@@ -0,0 +1,195 @@
+package TCP;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of the state machines, channels and timers, shown in
+ * JDK Mission Control under "TCP" next to the JVM's own thread-park, monitor-wait and
+ * GC events. To record a run:
+ *   java -XX:StartFlightRecording=filename=rdt.jfr TCP.RDT30 ...
+ * Each event is emitted through a static method here that returns at once unless the
+ * flight recorder has been started, from the command line or later by jcmd JFR.start,
+ * and otherwise fills in the event's fields only if a recording has it enabled.
+ * The first use of an event class costs the JVM hundreds of milliseconds of JFR
+ * setup, so the event classes are not even loaded until the recorder starts, and
+ * when nothing is recording the cost is one test per event.
+ * Events carry no stack trace, to keep them cheap when they are recorded; the
+ * thread each one ran on tells sender, receiver, relay and timer apart.
+ * Channels and state machines are named by class and identity, e.g. TUChannel@1b6d3586
+ * or Endpoint@4554617c, so the two ends of a duplex run or the sessions of a
+ * MultiSessionHarness run stay apart.
+ * @author rms
+ *
+ */
+public final class FlightEvents {
+	private FlightEvents() {}
+
+	/**
+	 * @return	true once the flight recorder has been started in this JVM
+	 */
+	static boolean recording() {
+		return FlightRecorder.isInitialized();
+	}
+	/**
+	 * @return	name of a channel or state machine in events
+	 */
+	static String name(Object o) {
+		return o.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(o));
+	}
+
+	/**
+	 * A state machine moving from one state to another; its duration is the time the
+	 * machine spent in loop in the old state, e.g. blocked in receive. Calls of loop
+	 * that return the state they ran in are not events.
+	 */
+	@Name("TCP.FsmTransition")
+	@Label("FSM Transition")
+	@Category({"TCP", "FSM"})
+	@Description("State machine moved from one state to another")
+	@StackTrace(false)
+	static class FsmTransition extends Event {
+		@Label("Machine")
+		String machine;
+		@Label("From")
+		int from;
+		@Label("To")
+		int to;
+	}
+
+	@Name("TCP.PacketSent")
+	@Label("Packet Sent")
+	@Category({"TCP", "Channel"})
+	@Description("Frame sent into a channel")
+	@StackTrace(false)
+	static class PacketSent extends Event {
+		@Label("Channel")
+		String channel;
+		@Label("Length")
+		int length;
+	}
+
+	@Name("TCP.PacketDropped")
+	@Label("Packet Dropped")
+	@Category({"TCP", "Channel"})
+	@Description("Frame lost by a channel, or dropped because its link queue or its session's channel was full")
+	@StackTrace(false)
+	static class PacketDropped extends Event {
+		@Label("Channel")
+		String channel;
+		@Label("Length")
+		int length;
+		@Label("Reason")
+		String reason;
+	}
+
+	@Name("TCP.PacketMunged")
+	@Label("Packet Munged")
+	@Category({"TCP", "Channel"})
+	@Description("Frame with bytes altered by a channel")
+	@StackTrace(false)
+	static class PacketMunged extends Event {
+		@Label("Channel")
+		String channel;
+		@Label("Length")
+		int length;
+		@Label("Bytes Altered")
+		int altered;
+	}
+
+	@Name("TCP.TimerStarted")
+	@Label("Timer Started")
+	@Category({"TCP", "Timer"})
+	@Description("TUChannel timer started or restarted")
+	@StackTrace(false)
+	static class TimerStarted extends Event {
+		@Label("Channel")
+		String channel;
+		@Label("Key")
+		int key;
+		@Label("Delay")
+		@Timespan(Timespan.MILLISECONDS)
+		long delay;
+	}
+
+	@Name("TCP.TimerFired")
+	@Label("Timer Fired")
+	@Category({"TCP", "Timer"})
+	@Description("TUChannel timer expired; receive throws its TimedOutException next")
+	@StackTrace(false)
+	static class TimerFired extends Event {
+		@Label("Channel")
+		String channel;
+		@Label("Key")
+		int key;
+	}
+
+	@Name("TCP.TimerCancelled")
+	@Label("Timer Cancelled")
+	@Category({"TCP", "Timer"})
+	@Description("Running TUChannel timer stopped, or replaced by a restart")
+	@StackTrace(false)
+	static class TimerCancelled extends Event {
+		@Label("Channel")
+		String channel;
+		@Label("Key")
+		int key;
+	}
+
+	static void sent(Object channel, int length) {
+		if (!recording()) return;
+		PacketSent e = new PacketSent();
+		if (!e.isEnabled()) return;
+		e.channel = name(channel);
+		e.length = length;
+		e.commit();
+	}
+	static void dropped(Object channel, int length, String reason) {
+		if (!recording()) return;
+		PacketDropped e = new PacketDropped();
+		if (!e.isEnabled()) return;
+		e.channel = name(channel);
+		e.length = length;
+		e.reason = reason;
+		e.commit();
+	}
+	static void munged(Object channel, int length, int altered) {
+		if (!recording()) return;
+		PacketMunged e = new PacketMunged();
+		if (!e.isEnabled()) return;
+		e.channel = name(channel);
+		e.length = length;
+		e.altered = altered;
+		e.commit();
+	}
+	static void timerStarted(Object channel, int key, int delay) {
+		if (!recording()) return;
+		TimerStarted e = new TimerStarted();
+		if (!e.isEnabled()) return;
+		e.channel = name(channel);
+		e.key = key;
+		e.delay = delay;
+		e.commit();
+	}
+	static void timerFired(Object channel, int key) {
+		if (!recording()) return;
+		TimerFired e = new TimerFired();
+		if (!e.isEnabled()) return;
+		e.channel = name(channel);
+		e.key = key;
+		e.commit();
+	}
+	static void timerCancelled(Object channel, int key) {
+		if (!recording()) return;
+		TimerCancelled e = new TimerCancelled();
+		if (!e.isEnabled()) return;
+		e.channel = name(channel);
+		e.key = key;
+		e.commit();
+	}
+}
@@ -0,0 +1,129 @@
+package TCP;
+import java.util.function.Supplier;
+
+/**
+ * Sending side of Go-Back-N, shared by RDTGBN, RDTDuplex and EventRdt.GoBackN, which
+ * add their own channels, timers and events: the packets in flight, from base up to
+ * nextSeq, in a ring of window packets reused as they are acknowledged, and the
+ * decisions taken on an ACK or a timeout.
+ * Sequence numbers count packets since start and are compared by difference, so
+ * wrap-around is harmless.
+ * A timeout goes back to base: nextSeq returns to base, and the packets up to sentUpTo
+ * are to be sent again, by resend, before any new data, as many at a time as limit
+ * allows. Without a CongestionController that is the whole window at once; with one,
+ * at most its window is in flight, so after a timeout cuts it to 1 only base is resent
+ * and the ACKs clock out the rest. The third duplicate ACK goes back to base the same
+ * way instead of waiting for the timeout.
+ * A GoBackNWindow belongs to one sender and is used on its thread only.
+ * @author rms
+ *
+ */
+public class GoBackNWindow {
+	/**
+	 * What an ACK did
+	 */
+	public enum Ack {
+		/** acknowledged data in flight */
+		NEW,
+		/** acknowledged nothing new */
+		DUPLICATE,
+		/** acknowledged nothing new and went back to base for a fast retransmit */
+		FAST_RETRANSMIT
+	}
+
+	private final int window;
+	private final BinaryPacket[] sent;
+	private final Supplier<CongestionController> congestion;
+	private int base = 0, nextSeq = 0, sentUpTo = 0;
+
+	/**
+	 * Constructs an empty window
+	 * @param window		largest number of packets in flight
+	 * @param congestion	source of the sender's controller, which returns null for a fixed window
+	 */
+	public GoBackNWindow(int window, Supplier<CongestionController> congestion) {
+		if (window < 1) throw new IllegalArgumentException("window must be positive");
+		this.window = window;
+		this.congestion = congestion;
+		sent = new BinaryPacket[window];
+		for (int i = 0; i < window; i++) sent[i] = new BinaryPacket();
+	}
+
+	/**
+	 * @return	largest number of packets allowed in flight
+	 */
+	public int limit() {
+		CongestionController c = congestion.get();
+		return c == null ? window : Math.min(window, c.window());
+	}
+	/**
+	 * @return	true if no packet is in flight
+	 */
+	public boolean isEmpty() {
+		return base == nextSeq;
+	}
+	/**
+	 * @return	true if limit allows another packet in flight
+	 */
+	public boolean canSend() {
+		return nextSeq - base < limit();
+	}
+	/**
+	 * @return	true if a packet taken back by a timeout or fast retransmit waits to be resent
+	 * 			and limit allows it
+	 */
+	public boolean canResend() {
+		return nextSeq != sentUpTo && canSend();
+	}
+	/**
+	 * Puts new data in flight; call only if canSend and not canResend
+	 * @param dat	data of the packet
+	 * @return		packet to send, valid until it is acknowledged
+	 */
+	public BinaryPacket send(String dat) {
+		BinaryPacket packet = sent[Math.floorMod(nextSeq, window)].set(nextSeq, 0, dat);
+		sentUpTo = ++nextSeq;
+		return packet;
+	}
+	/**
+	 * Puts the first packet taken back in flight again; call only if canResend
+	 * @return	packet to send
+	 */
+	public BinaryPacket resend() {
+		return sent[Math.floorMod(nextSeq++, window)];
+	}
+	/**
+	 * @param acked	sequence number acknowledged
+	 * @return		true if an ACK of acked would acknowledge data in flight
+	 */
+	public boolean acknowledges(int acked) {
+		return acked - base >= 0 && acked - sentUpTo < 0;
+	}
+	/**
+	 * Accepts a cumulative ACK of every packet up to acked
+	 * @param acked	sequence number acknowledged
+	 * @return		what the ACK did
+	 */
+	public Ack ack(int acked) {
+		CongestionController c = congestion.get();
+		if (!acknowledges(acked)) {
+			if (c != null && acked == base - 1 && base != nextSeq && c.duplicateAck(nextSeq - base)) {
+				nextSeq = base;
+				return Ack.FAST_RETRANSMIT;
+			}
+			return Ack.DUPLICATE;
+		}
+		if (c != null) c.acked(acked + 1 - base, nextSeq - base);
+		base = acked + 1;
+		if (base - nextSeq > 0) nextSeq = base;
+		return Ack.NEW;
+	}
+	/**
+	 * The timer of the oldest packet in flight expired: goes back to base
+	 */
+	public void timeout() {
+		CongestionController c = congestion.get();
+		if (c != null) c.timeout(nextSeq - base);
+		nextSeq = base;
+	}
+}
@@ -0,0 +1,109 @@
+package TCP;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Errors a channel introduces into the frames crossing it: each frame is lost with
+ * probability plose, and each byte of a surviving frame is replaced by a random
+ * printable character with probability pmunge.
+ * Random choices come from the calling thread's ThreadLocalRandom, or, once seed is
+ * called, from a SplittableRandom of this Impairment's own, so a channel makes the
+ * same choices in every run with the same seed. Only the seeded SplittableRandom is
+ * locked, as it is not thread-safe; unseeded, the threads sending into a channel
+ * share nothing.
+ * munge draws the gap to the next altered byte from a geometric distribution, so
+ * its cost grows with the number of errors rather than the length of the frame.
+ * @author rms
+ *
+ */
+public class Impairment {
+	/**
+	 * Probability that a byte is altered
+	 */
+	public final double pmunge;
+	/**
+	 * Probability that a frame is lost
+	 */
+	public final double plose;
+	/**
+	 * log(1 - pmunge), scaling uniform draws into geometric gaps
+	 */
+	private final double logKeep;
+	/**
+	 * Source of random choices once seeded, locked while in use; null to use ThreadLocalRandom
+	 */
+	private volatile SplittableRandom random;
+
+	/**
+	 * Constructs an Impairment drawing from ThreadLocalRandom
+	 * @param pmunge	bit error probability
+	 * @param plose		lost packet probability
+	 */
+	public Impairment(double pmunge, double plose) {
+		this.pmunge = pmunge;
+		this.plose = plose;
+		this.logKeep = Math.log1p(-Math.min(pmunge, 1));
+	}
+	/**
+	 * Constructs an Impairment drawing from random
+	 * @param pmunge	bit error probability
+	 * @param plose		lost packet probability
+	 * @param random	source of random choices, used by this Impairment only
+	 */
+	public Impairment(double pmunge, double plose, SplittableRandom random) {
+		this(pmunge, plose);
+		this.random = random;
+	}
+
+	/**
+	 * Makes random choices reproducible from now on
+	 * @param seed	seed of this Impairment's random choices
+	 */
+	public void seed(long seed) {
+		random = new SplittableRandom(seed);
+	}
+	/**
+	 * @return	true if the next frame is to be lost
+	 */
+	public boolean lose() {
+		if (plose <= 0) return false;
+		SplittableRandom random = this.random;
+		if (random == null) return ThreadLocalRandom.current().nextDouble() < plose;
+		synchronized (random) {
+			return random.nextDouble() < plose;
+		}
+	}
+	/**
+	 * Alters bytes of a frame in place
+	 * @param frame	array holding the frame
+	 * @param off	index of first byte
+	 * @param len	number of bytes
+	 * @return		number of bytes altered; a byte replaced by its own value is not counted
+	 */
+	public int munge(byte[] frame, int off, int len) {
+		if (pmunge <= 0) return 0;
+		SplittableRandom random = this.random;
+		if (random == null) return munge(frame, off, len, ThreadLocalRandom.current()::nextDouble);
+		synchronized (random) {
+			return munge(frame, off, len, random::nextDouble);
+		}
+	}
+	private int munge(byte[] frame, int off, int len, DoubleSupplier uniform) {
+		int altered = 0;
+		for (long i = off + gap(uniform); i < off + len; i += 1 + gap(uniform)) {
+			byte b = (byte)(32 + (int)(94 * uniform.getAsDouble()));
+			if (frame[(int)i] == b) continue;
+			frame[(int)i] = b;
+			altered++;
+		}
+		return altered;
+	}
+	/**
+	 * @return	number of bytes left intact before the next altered byte
+	 */
+	private long gap(DoubleSupplier uniform) {
+		if (pmunge >= 1) return 0;
+		return (long)Math.min(Math.log(1 - uniform.getAsDouble()) / logKeep, Integer.MAX_VALUE);
+	}
+}
@@ -0,0 +1,210 @@
+package TCP;
+import java.util.ArrayDeque;
+import java.util.SplittableRandom;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timing of the link under a UChannel: frames are transmitted one at a time at a
+ * fixed rate, wait in a bounded queue while the link is busy, and arrive after a
+ * propagation delay plus random jitter. A frame finding the queue full is dropped
+ * (tail drop). Arrivals keep the order of sending, so jitter delays frames but
+ * never reorders them.
+ * Nothing sleeps per frame: each frame's arrival is computed when it is sent, and the
+ * link keeps a single timeout pending on a TimerService, by default the shared one,
+ * for the earliest arrival; its thread hands the frames due to the channel. Frames
+ * are copied into buffers the link reuses once they have arrived. A frame due while
+ * the channel cannot take it without blocking, e.g. because its receiver has fallen
+ * behind, waits on the link, so one slow receiver never holds up the scheduler.
+ * A LinkModel keeps the state of one link and serves a single channel.
+ * @author rms
+ *
+ */
+public class LinkModel {
+	/**
+	 * Milliseconds before retrying a due frame the channel could not take
+	 */
+	private static final int RETRY = 1;
+	/**
+	 * Transmission rate in bytes per second; 0 for no limit
+	 */
+	public final long rate;
+	/**
+	 * Propagation delay in milliseconds
+	 */
+	public final double delay;
+	/**
+	 * Largest extra delay in milliseconds, drawn uniformly for each frame
+	 */
+	public final double jitter;
+	/**
+	 * Largest number of frames waiting for or in transmission; 0 for no limit
+	 */
+	public final int queue;
+	private TimerService timers = TimerService.shared();
+	/**
+	 * Timeout for the arrival of the first frame in flight, scheduled or running; null
+	 * when no frame is in flight
+	 */
+	private TimerService.Timeout next;
+	private UChannel channel;
+	private boolean closed;
+	/**
+	 * Times at which frames in the queue finish transmission, oldest first
+	 */
+	private final ArrayDeque<Long> departures = new ArrayDeque<>();
+	/**
+	 * Frames on the link, in order of arrival
+	 */
+	private final ArrayDeque<Frame> inFlight = new ArrayDeque<>();
+	/**
+	 * Frames that have arrived, reused by carry
+	 */
+	private final ArrayDeque<Frame> free = new ArrayDeque<>();
+	private long busyUntil, lastArrival;
+	/**
+	 * Source of jitter once seeded; null to use ThreadLocalRandom
+	 */
+	private SplittableRandom random;
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Constructs a LinkModel
+	 * @param rate		transmission rate in bytes per second; 0 for no limit
+	 * @param delay		propagation delay in milliseconds
+	 * @param jitter	largest extra delay in milliseconds
+	 * @param queue		largest number of queued frames; 0 for no limit
+	 */
+	public LinkModel(long rate, double delay, double jitter, int queue) {
+		if (rate < 0 || delay < 0 || jitter < 0 || queue < 0) throw new IllegalArgumentException("link parameters must not be negative");
+		this.rate = rate;
+		this.delay = delay;
+		this.jitter = jitter;
+		this.queue = queue;
+	}
+
+	/**
+	 * Moves the link's arrivals to another TimerService; must be called before the link is used
+	 * @param timers	scheduler on which frames arrive
+	 */
+	public synchronized void setTimerService(TimerService timers) {
+		this.timers = timers;
+	}
+	/**
+	 * Queues a copy of a frame for transmission and schedules its arrival at channel,
+	 * or drops it if the queue is full
+	 * @param frame		frame content; may be reused as soon as carry returns
+	 * @param len		number of bytes in frame
+	 * @param channel	channel to which the frame arrives
+	 */
+	synchronized void carry(byte[] frame, int len, UChannel channel) {
+		if (closed) return;
+		long now = System.nanoTime();
+		while (!departures.isEmpty() && departures.peekFirst() <= now) departures.pollFirst();
+		if (queue > 0 && departures.size() >= queue) {
+			dropped.incrementAndGet();
+			FlightEvents.dropped(channel, len, "queue");
+			return;
+		}
+		long done = Math.max(now, busyUntil) + (rate > 0 ? len * 1000000000L / rate : 0);
+		busyUntil = done;
+		departures.addLast(done);
+		double u = jitter <= 0 ? 0 : random != null ? random.nextDouble() : ThreadLocalRandom.current().nextDouble();
+		long arrival = Math.max(lastArrival, done + (long)((delay + jitter * u) * 1e6));
+		lastArrival = arrival;
+		Frame f = free.pollFirst();
+		if (f == null) f = new Frame();
+		f.set(frame, len, arrival);
+		inFlight.addLast(f);
+		this.channel = channel;
+		if (next == null) schedule(arrival - now);
+	}
+	/**
+	 * Schedules land; called with the lock held
+	 */
+	private void schedule(long nanos) {
+		try {
+			next = timers.scheduleNanos(nanos, this::land);
+		} catch (RejectedExecutionException e) {
+			// the scheduler has been shut down; frames on the link never arrive
+			next = null;
+			inFlight.clear();
+		}
+	}
+	/**
+	 * Hands every frame whose arrival time has come to the channel, in order, then
+	 * schedules the next arrival. A frame the channel cannot take yet stays first in
+	 * flight and is tried again after RETRY milliseconds.
+	 */
+	private void land() {
+		for (;;) {
+			Frame f;
+			UChannel channel;
+			synchronized (this) {
+				f = inFlight.peekFirst();
+				if (closed || f == null) {
+					next = null;
+					return;
+				}
+				long wait = f.arrival - System.nanoTime();
+				channel = this.channel;
+				if (wait > 0 || !channel.canArrive(f.len)) {
+					schedule(wait > 0 ? wait : RETRY * 1000000L);
+					return;
+				}
+				inFlight.pollFirst();
+			}
+			channel.arrive(f.data, f.len);
+			synchronized (this) {
+				free.addLast(f);
+			}
+		}
+	}
+
+	/**
+	 * Makes the jitter of frames sent from now on reproducible
+	 * @param seed	seed of this link's jitter
+	 */
+	public synchronized void seed(long seed) {
+		random = new SplittableRandom(seed);
+	}
+	/**
+	 * @return	number of frames dropped because the queue was full
+	 */
+	public long dropped() {
+		return dropped.get();
+	}
+	/**
+	 * @return	bytes in flight on a link kept busy for one propagation delay: rate * delay
+	 */
+	public double bandwidthDelayProduct() {
+		return rate * delay / 1000;
+	}
+	/**
+	 * Stops the link; frames still on the link never arrive, and frames sent later are
+	 * discarded. The TimerService keeps running for its other users.
+	 */
+	public synchronized void shutdown() {
+		closed = true;
+		if (next != null) next.cancel();
+		next = null;
+		inFlight.clear();
+		free.clear();
+	}
+
+	/**
+	 * A frame on the link, its buffer kept for the next frame once it has arrived
+	 */
+	private static class Frame {
+		byte[] data = new byte[0];
+		int len;
+		long arrival;
+		void set(byte[] frame, int len, long arrival) {
+			if (data.length < len) data = new byte[Math.max(len, 256)];
+			System.arraycopy(frame, 0, data, 0, len);
+			this.len = len;
+			this.arrival = arrival;
+		}
+	}
+}
@@ -0,0 +1,347 @@
+package TCP;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, a latency histogram and state residency of one simulation, cheap enough
+ * to leave on: RTDBase.setMetrics attaches a Metrics to the simulation's channels,
+ * which count frames sent, lost and munged, to its state machines, which report
+ * each change of state, and to its events, from which it counts corrupt packets
+ * detected, duplicates, retransmissions and timeouts, and keeps the sender's current
+ * retransmission timeout with the least and greatest it has been, for RDT30.
+ * The channels cannot see which munged frames pass a checksum, so corrupt packets not
+ * detected are estimated as the munged frames less those detected. The estimate is
+ * too high by the munged frames still in a channel, a link or a receive queue when
+ * it is read, and by those whose damage leaves a valid packet the protocol ignores,
+ * such as a reply a windowed sender does not take for an ACK; the exact count of
+ * corrupt lines delivered is ProtocolHarness's undetected column.
+ * Latency runs from the moment the sender takes a line from the application to the
+ * moment the receiver delivers it. It is recorded only for protocols that deliver
+ * each line once and in order, RDT21 and later, which pair the n-th line delivered
+ * with the n-th read; RDT10 and RDT20, which can lose or repeat lines, record none.
+ * All methods may be called from any thread while the simulation runs.
+ * @author rms
+ *
+ */
+public class Metrics implements RdtEventListener {
+	/**
+	 * What the counters count
+	 */
+	public enum Counter {
+		/** frames sent into a channel, data and acknowledgements */
+		SENT,
+		/** frames lost by a channel */
+		LOST,
+		/** frames with at least one byte altered by a channel */
+		MUNGED,
+		/** packets failing their checksum */
+		CORRUPT_DETECTED,
+		/** estimate of munged frames passing their checksum; computed, never counted */
+		CORRUPT_UNDETECTED,
+		/** data delivered before, and acknowledgements for data no longer in flight */
+		DUPLICATES,
+		/** packets sent again */
+		RETRANSMITS,
+		/** expiries of a sender's timers */
+		TIMEOUTS
+	}
+
+	/**
+	 * Largest number of intervals kept in each machine's time series
+	 */
+	public static final int SERIES = 10000;
+
+	private final LongAdder[] counters = new LongAdder[Counter.values().length];
+	private final Histogram latency = new Histogram();
+	private final Map<String, Machine> machines = new LinkedHashMap<>();
+	private final LongAccumulator rtoMin = new LongAccumulator(Math::min, Long.MAX_VALUE), rtoMax = new LongAccumulator(Math::max, -1);
+	private volatile int rto = -1;
+	private final long start = System.nanoTime();
+
+	/**
+	 * Constructs a Metrics with every count at 0
+	 */
+	public Metrics() {
+		for (int i = 0; i < counters.length; i++) counters[i] = new LongAdder();
+	}
+
+	/**
+	 * Adds one to a counter
+	 * @param counter	counter to increment
+	 */
+	public void count(Counter counter) {
+		counters[counter.ordinal()].increment();
+	}
+	/**
+	 * @param counter	counter to read
+	 * @return			its current value
+	 */
+	public long get(Counter counter) {
+		if (counter == Counter.CORRUPT_UNDETECTED) return Math.max(0, get(Counter.MUNGED) - get(Counter.CORRUPT_DETECTED));
+		return counters[counter.ordinal()].sum();
+	}
+	/**
+	 * Records the latency of one line
+	 * @param nanos	nanoseconds from the sender taking the line to its delivery
+	 */
+	public void latency(long nanos) {
+		latency.record(nanos);
+	}
+	/**
+	 * @return	histogram of line latencies in nanoseconds
+	 */
+	public Histogram latency() {
+		return latency;
+	}
+	/**
+	 * @return	sender's current retransmission timeout in milliseconds; -1 if it has none
+	 */
+	public int rto() {
+		return rto;
+	}
+	/**
+	 * @return	least retransmission timeout of the sender so far; -1 if it has none
+	 */
+	public long rtoMin() {
+		return rto < 0 ? -1 : rtoMin.get();
+	}
+	/**
+	 * @return	greatest retransmission timeout of the sender so far; -1 if it has none
+	 */
+	public long rtoMax() {
+		return rtoMax.get();
+	}
+	/**
+	 * Returns the residency record of a state machine, creating it on first use
+	 * @param name	name of the machine, e.g. "sender"
+	 * @return		record to which the machine reports its changes of state
+	 */
+	public synchronized Machine machine(String name) {
+		return machines.computeIfAbsent(name, Machine::new);
+	}
+	/**
+	 * @return	residency records of the machines, in the order they were created
+	 */
+	public synchronized List<Machine> machines() {
+		return new ArrayList<>(machines.values());
+	}
+
+	@Override
+	public void retransmitted(int state, TracedPacket packet) {
+		count(Counter.RETRANSMITS);
+	}
+	@Override
+	public void corrupt(Side side, int from, int to, TracedPacket packet) {
+		count(Counter.CORRUPT_DETECTED);
+	}
+	@Override
+	public void duplicate(Side side, int from, int to, TracedPacket packet, boolean resending) {
+		count(Counter.DUPLICATES);
+	}
+	@Override
+	public void timeout(int from, int to, int key) {
+		count(Counter.TIMEOUTS);
+	}
+	@Override
+	public void rto(int state, int rto) {
+		rtoMin.accumulate(rto);
+		rtoMax.accumulate(rto);
+		this.rto = rto;
+	}
+
+	/**
+	 * Prints every counter, the latency percentiles, the retransmission timeout if the
+	 * sender has one and each machine's residency
+	 * @param out	stream receiving the report
+	 */
+	public void dump(PrintStream out) {
+		out.printf("# metrics after %.3f s\n", (System.nanoTime() - start) / 1e9);
+		for (Counter c : Counter.values()) out.printf("%-20s %d\n", c.name().toLowerCase(), get(c));
+		out.printf("%-20s %s\n", "latency_ms", latency);
+		if (rto >= 0) out.printf("%-20s now=%d min=%d max=%d\n", "rto_ms", rto(), rtoMin(), rtoMax());
+		for (Machine m : machines()) out.printf("%-20s %s\n", m.name, m);
+		out.flush();
+	}
+	/**
+	 * Prints the report to out when the JVM exits, e.g. on Ctrl-C
+	 * @param out	stream receiving the report
+	 */
+	public void dumpOnExit(PrintStream out) {
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(out)));
+	}
+
+	/**
+	 * Histogram with logarithmic buckets, as HdrHistogram: values below 2^SUB_BITS have a
+	 * bucket each, and each power of two above is split into 2^SUB_BITS buckets, so a
+	 * value is known to within 1/16 of itself whatever its size, in under 1000 buckets.
+	 * @author rms
+	 *
+	 */
+	public static class Histogram {
+		private static final int SUB_BITS = 4, SUB = 1 << SUB_BITS;
+		private final AtomicLongArray buckets = new AtomicLongArray(bucket(Long.MAX_VALUE) + 1);
+		private final LongAdder count = new LongAdder(), sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		/**
+		 * Adds a value
+		 * @param value	value recorded; negative values count as 0
+		 */
+		public void record(long value) {
+			value = Math.max(0, value);
+			buckets.incrementAndGet(bucket(value));
+			count.increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+		/**
+		 * @return	number of values recorded
+		 */
+		public long count() {
+			return count.sum();
+		}
+		/**
+		 * @return	mean of the values; NaN if none
+		 */
+		public double mean() {
+			long n = count();
+			return n == 0 ? Double.NaN : (double)sum.sum() / n;
+		}
+		/**
+		 * @return	largest value; 0 if none
+		 */
+		public long max() {
+			return max.get();
+		}
+		/**
+		 * @param q	quantile in (0, 1]
+		 * @return	largest value in the bucket holding the q quantile, at most max; 0 if none
+		 */
+		public long percentile(double q) {
+			long[] counts = new long[buckets.length()];
+			long n = 0;
+			for (int b = 0; b < counts.length; b++) n += counts[b] = buckets.get(b);
+			long rank = (long)Math.ceil(q * n);
+			for (int b = 0; b < counts.length; b++) {
+				rank -= counts[b];
+				if (rank <= 0 && counts[b] > 0) return Math.min(max(), b + 1 < counts.length ? lowest(b + 1) - 1 : Long.MAX_VALUE);
+			}
+			return 0;
+		}
+		static int bucket(long value) {
+			if (value < SUB) return (int)value;
+			int e = 63 - Long.numberOfLeadingZeros(value);
+			return ((e - SUB_BITS + 1) << SUB_BITS) + (int)((value >>> (e - SUB_BITS)) & (SUB - 1));
+		}
+		static long lowest(int bucket) {
+			if (bucket < SUB) return bucket;
+			int e = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+			return (1L << e) | ((long)(bucket & (SUB - 1)) << (e - SUB_BITS));
+		}
+		/**
+		 * @return	count, mean, percentiles and max in milliseconds, taking values as nanoseconds
+		 */
+		@Override
+		public String toString() {
+			return String.format("n=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f max=%.3f", count(), mean() / 1e6,
+					percentile(0.50) / 1e6, percentile(0.90) / 1e6, percentile(0.99) / 1e6, max() / 1e6);
+		}
+	}
+
+	/**
+	 * Time a state machine spends in each state: totals per state, and a time series of
+	 * the last SERIES intervals spent in one state before moving to another.
+	 * The machine's thread calls enter when it starts and at each change of state.
+	 * @author rms
+	 *
+	 */
+	public static class Machine {
+		public final String name;
+		private long[] residency = new long[0];
+		private final ArrayDeque<Interval> series = new ArrayDeque<>();
+		private int state = -1;
+		private long since;
+
+		Machine(String name) {
+			this.name = name;
+		}
+		/**
+		 * Ends the interval in the current state, if any, and starts one in state
+		 * @param state	state entered
+		 */
+		public synchronized void enter(int state) {
+			long now = System.nanoTime();
+			if (this.state >= 0) {
+				add(this.state, now - since);
+				if (series.size() == SERIES) series.pollFirst();
+				series.addLast(new Interval(since, this.state, now - since));
+			}
+			this.state = state;
+			this.since = now;
+		}
+		private void add(int state, long nanos) {
+			if (state >= residency.length) residency = Arrays.copyOf(residency, state + 1);
+			residency[state] += nanos;
+		}
+		/**
+		 * @return	nanoseconds spent in each state so far, indexed by state, counting the current one
+		 */
+		public synchronized long[] residency() {
+			long[] r = residency.clone();
+			if (state >= 0) {
+				if (state >= r.length) r = Arrays.copyOf(r, state + 1);
+				r[state] += System.nanoTime() - since;
+			}
+			return r;
+		}
+		/**
+		 * @return	last intervals spent in one state, oldest first
+		 */
+		public synchronized List<Interval> series() {
+			return new ArrayList<>(series);
+		}
+		/**
+		 * @return	milliseconds and share of time in each state
+		 */
+		@Override
+		public String toString() {
+			long[] r = residency();
+			long total = Arrays.stream(r).sum();
+			StringBuilder sb = new StringBuilder();
+			for (int s = 0; s < r.length; s++) {
+				if (r[s] == 0) continue;
+				sb.append(String.format("%d: %.3f ms (%.1f%%) ", s, r[s] / 1e6, 100.0 * r[s] / total));
+			}
+			return sb.toString().trim();
+		}
+	}
+
+	/**
+	 * Time a state machine spent in one state
+	 */
+	public static class Interval {
+		/**
+		 * System.nanoTime when the state was entered
+		 */
+		public final long start;
+		public final int state;
+		public final long nanos;
+		Interval(long start, int state, long nanos) {
+			this.start = start;
+			this.state = state;
+			this.nanos = nanos;
+		}
+		@Override
+		public String toString() {
+			return String.format("%d,%d,%d", start, state, nanos);
+		}
+	}
+}
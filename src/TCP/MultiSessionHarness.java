@@ -0,0 +1,232 @@
+package TCP;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs many simulations at once over one SharedLink and reports how they share it.
+ * Sessions are assigned the listed protocols in turn, each sends its own numbered
+ * lines as in ProtocolHarness, and all of them stop together at the time limit.
+ * Prints one CSV row per session, then a blank line and one row per protocol and
+ * one for all sessions, giving aggregate throughput and Jain's fairness index
+ * (sum x)^2 / (n sum x^2) over the sessions' lines_per_sec: 1 when every session
+ * gets the same throughput, 1/n when one session gets it all.
+ * To run:  MultiSessionHarness [-p RDT30,RDTGBN,...][-s sessions][-m pmunge][-l ploss][-t timeout]
+ *                              [-n lines][-d seconds][-f corpus][-o file.csv][-w window][-c checksum][-r][-i][-v]
+ *                              [-b rate][-g delay][-j jitter][-q queue][-k reno][-a mtu[,linger]][-e acks[,delay]][-z seed][-y]
+ * -m, -l, -b, -g, -j and -q model the shared link, and -z seeds its random choices; -r makes its channels RingChannels,
+ * which take no LinkModel, and -i puts them in inline mode; -w, -c, -v, -k, -a, -e and -y apply to every
+ * session, each with a congestion controller of its own, as RTDBase.configureEndpoints applies them.
+ * -y prints each session's metrics to standard error after the run; frames on the shared link
+ * count in no session's sent, lost and munged counters.
+ * @author rms
+ *
+ */
+public class MultiSessionHarness {
+	static final String HEADER = "session,protocol,lines,delivered,seconds,lines_per_sec,sent,retransmissions,duplicates,undetected,p50_ms,p99_ms";
+	static final String SUMMARY = "protocol,sessions,delivered,lines_per_sec,mean_lines_per_sec,jain";
+
+	private final ProtocolHarness harness;
+	private final int lines;
+	private final double seconds;
+	private final Object[] options;
+
+	/**
+	 * Constructs a harness
+	 * @param corpus	lines sent, repeated as often as needed
+	 * @param lines		number of lines sent by each session
+	 * @param seconds	time limit of the run
+	 * @param options	options returned by RTDBase.argParser
+	 */
+	public MultiSessionHarness(String[] corpus, int lines, double seconds, Object[] options) {
+		this.harness = new ProtocolHarness(corpus, lines, seconds, options);
+		this.lines = lines;
+		this.seconds = seconds;
+		this.options = options;
+	}
+
+	/**
+	 * Runs the sessions to completion or time limit
+	 * @param protocols	names of protocols in ProtocolHarness.PROTOCOLS, assigned to sessions in turn
+	 * @param sessions	number of sessions
+	 * @param csv		destination of the session rows
+	 * @param summary	destination of the summary rows
+	 * @throws IOException			if a channel cannot be created
+	 * @throws InterruptedException	if interrupted while waiting for the run
+	 */
+	public void run(String[] protocols, int sessions, PrintStream csv, PrintStream summary) throws IOException, InterruptedException {
+		double pmunge = (Double)options[0], plost = (Double)options[1];
+		int timeout = (Integer)options[2];
+		boolean ring = (Boolean)options[6], inline = (Boolean)options[7];
+		ThreadFactory factory = (Boolean)options[8] ? Threads.virtual() : Threads.PLATFORM;
+		Channel forward = channel(pmunge, plost, ring, inline), backward = channel(pmunge, plost, ring, inline);
+		if (options[18] != null) RTDBase.seed((Long)options[18], forward, backward);
+		SharedLink link = new SharedLink(forward, backward);
+		RTDBase[] rdts = new RTDBase[sessions];
+		ProtocolHarness.Run[] runs = new ProtocolHarness.Run[sessions];
+		for (int i = 0; i < sessions; i++) {
+			String protocol = protocols[i % protocols.length];
+			RTDBase rdt = ProtocolHarness.PROTOCOLS.get(protocol).create(0, 0, timeout, (Integer)options[4]);
+			ProtocolHarness.Run run = harness.new Run();
+			rdt.configureEndpoints(options);
+			link.attach(rdt);
+			rdt.forward = new ProtocolHarness.CountingChannel(rdt.forward, run.sent);
+			rdt.setAppInput(run.new Workload());
+			rdt.setApplicationSink(run);
+			rdt.setEventListener(run);
+			rdts[i] = rdt;
+			runs[i] = run;
+		}
+		link.start(factory);
+		long start = System.nanoTime();
+		for (int i = 0; i < sessions; i++) {
+			runs[i].start = System.nanoTime();
+			rdts[i].run();
+		}
+		long deadline = start + (long)(seconds * 1e9);
+		double[] rates = new double[sessions];
+		csv.println(HEADER);
+		try {
+			for (int i = 0; i < sessions; i++) runs[i].await(deadline);
+		} finally {
+			for (RTDBase rdt : rdts) rdt.stop();
+			link.stop();
+			for (Channel c : new Channel[] {forward, backward}) {
+				if (c instanceof UChannel && ((UChannel)c).getLinkModel() != null) ((UChannel)c).getLinkModel().shutdown();
+			}
+		}
+		for (int i = 0; i < sessions; i++) {
+			ProtocolHarness.Run run = runs[i];
+			synchronized (run) {
+				double elapsed = ((run.delivered == lines ? run.finish : deadline) - run.start) / 1e9;
+				long[] latency = Arrays.copyOf(run.latency, run.delivered);
+				Arrays.sort(latency);
+				rates[i] = run.delivered / elapsed;
+				csv.println(String.format("%d,%s,%d,%d,%.3f,%.1f,%d,%d,%d,%d,%.3f,%.3f", i, protocols[i % protocols.length],
+						lines, run.delivered, elapsed, rates[i], run.sent.get(), run.retransmissions.get(),
+						run.duplicates, run.undetected, ProtocolHarness.percentile(latency, 0.50) / 1e6,
+						ProtocolHarness.percentile(latency, 0.99) / 1e6));
+			}
+		}
+		Map<String, double[]> groups = new LinkedHashMap<>();
+		for (String protocol : protocols) {
+			groups.put(protocol, filter(rates, protocols, protocol));
+		}
+		if (groups.size() > 1) groups.put("ALL", rates);
+		summary.println();
+		summary.println(SUMMARY);
+		for (Map.Entry<String, double[]> g : groups.entrySet()) {
+			double[] x = g.getValue();
+			int delivered = 0;
+			for (int i = 0; i < sessions; i++) {
+				if (g.getKey().equals("ALL") || protocols[i % protocols.length].equals(g.getKey())) delivered += runs[i].delivered;
+			}
+			double sum = Arrays.stream(x).sum();
+			summary.println(String.format("%s,%d,%d,%.1f,%.1f,%.4f", g.getKey(), x.length, delivered, sum,
+					x.length == 0 ? 0.0 : sum / x.length, jain(x)));
+		}
+		if (link.misrouted() > 0) summary.println("# misrouted frames: " + link.misrouted());
+		if (link.dropped() > 0) summary.println("# frames dropped by full session channels: " + link.dropped());
+		long dropped = 0;
+		for (Channel c : new Channel[] {forward, backward}) {
+			if (c instanceof UChannel && ((UChannel)c).getLinkModel() != null) dropped += ((UChannel)c).getLinkModel().dropped();
+		}
+		if (dropped > 0) summary.println("# frames dropped by full link queues: " + dropped);
+		for (int i = 0; i < sessions; i++) {
+			if (rdts[i].metrics == null) continue;
+			System.err.println("# session " + i + ", " + protocols[i % protocols.length]);
+			rdts[i].metrics.dump(System.err);
+		}
+	}
+
+	private Channel channel(double pmunge, double plost, boolean ring, boolean inline) throws IOException {
+		if (ring) return new RingChannel(pmunge, plost);
+		UChannel channel = new UChannel(pmunge, plost);
+		channel.setInline(inline);
+		if ((Long)options[9] > 0 || (Double)options[10] > 0 || (Double)options[11] > 0) {
+			channel.setLinkModel(new LinkModel((Long)options[9], (Double)options[10], (Double)options[11], (Integer)options[12]));
+		}
+		return channel;
+	}
+	private static double[] filter(double[] rates, String[] protocols, String protocol) {
+		double[] x = new double[rates.length];
+		int n = 0;
+		for (int i = 0; i < rates.length; i++) {
+			if (protocols[i % protocols.length].equals(protocol)) x[n++] = rates[i];
+		}
+		return Arrays.copyOf(x, n);
+	}
+
+	/**
+	 * @param x	throughput of each session
+	 * @return	Jain's fairness index of x; NaN if x is empty or all zero
+	 */
+	static double jain(double[] x) {
+		double sum = 0, squares = 0;
+		for (double v : x) {
+			sum += v;
+			squares += v * v;
+		}
+		return sum * sum / (x.length * squares);
+	}
+
+	/**
+	 * Runs the sessions
+	 * @param args	see class description
+	 * @throws IOException			if the corpus or output cannot be opened
+	 * @throws InterruptedException	if interrupted
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String[] protocols = {"RDT30", "RDTGBN"};
+		int sessions = 10, lines = 200;
+		double seconds = 10;
+		String outFile = null;
+		Object[] options;
+		try {
+			List<String> rest = new ArrayList<>();
+			for (int idx = 0; idx < args.length; idx++) {
+				switch (args[idx]) {
+				case "-p": protocols = args[++idx].split(","); break;
+				case "-s": sessions = Integer.parseInt(args[++idx]); break;
+				case "-n": lines = Integer.parseInt(args[++idx]); break;
+				case "-d": seconds = Double.parseDouble(args[++idx]); break;
+				case "-o": outFile = args[++idx]; break;
+				case "-m": case "-l": case "-t": case "-f": case "-w": case "-c": case "-b": case "-g": case "-j": case "-q": case "-k": case "-a": case "-e": case "-z":
+					rest.add(args[idx]);
+					rest.add(args[++idx]);
+					break;
+				case "-r": case "-i": case "-v": case "-y": rest.add(args[idx]); break;
+				default: throw new IllegalArgumentException(args[idx]);
+				}
+			}
+			for (String p : protocols) if (!ProtocolHarness.PROTOCOLS.containsKey(p)) throw new IllegalArgumentException(p);
+			if (sessions < 1) throw new IllegalArgumentException("sessions must be positive");
+			if (!rest.contains("-t")) {
+				rest.add("-t");
+				rest.add("50");
+			}
+			options = RTDBase.argParser("MultiSessionHarness", rest.toArray(new String[0]));
+		} catch (Exception ex) {
+			System.out.println("Usage: java MultiSessionHarness [-p RDT30,RDTGBN,...][-s sessions][-m pmunge][-l ploss][-t timeout][-n lines][-d seconds][-f corpus][-o file.csv][-w window][-c checksum][-r][-i][-v][-b rate][-g delay][-j jitter][-q queue][-k reno][-a mtu[,linger]][-e acks[,delay]][-z seed][-y]");
+			return;
+		}
+		String[] corpus = options[3] == null ? ProtocolHarness.defaultCorpus()
+				: Files.readAllLines(new File(System.getenv("user.dir"), (String)options[3]).toPath(), StandardCharsets.UTF_8).toArray(new String[0]);
+		PrintStream console = System.out;
+		PrintStream csv = outFile == null ? console : new PrintStream(new FileOutputStream(outFile), true, "UTF-8");
+		try {
+			new MultiSessionHarness(corpus, lines, seconds, options).run(protocols, sessions, csv, console);
+		} finally {
+			if (csv != console) csv.close();
+		}
+	}
+}
@@ -4,14 +4,10 @@ package TCP;
  * @author rms
  *
  */
-public interface PacketType {
+public interface PacketType extends TracedPacket {
 	/**
 	 * Serializes content for transmission over a channel
 	 * @return	serialized version of packet content.
 	 */
 	String serialize();
-	/**
-	 * @return	true if checksum does not match content.
-	 */
-	boolean isCorrupt();
 }
@@ -0,0 +1,337 @@
+package TCP;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs simulators without a console over a matrix of pmunge, ploss and timeout
+ * values and reports one CSV row per run.
+ * Each run feeds the sender numbered lines from a corpus and checks every line the
+ * receiver delivers against what was sent, so duplicates and undetected corruption
+ * are counted exactly. A run ends when every line is delivered or its time is up;
+ * a protocol that cannot recover from loss (rdt2.x) shows up as a low delivered count.
+ * To run:  ProtocolHarness [-p RDT10,RDT20,...][-m pmunge,...][-l ploss,...][-t timeout,...]
+ *                          [-n lines][-d seconds][-f corpus][-o file.csv][-w window][-c checksum][-r][-i][-v]
+ *                          [-b rate][-g delay][-j jitter][-q queue][-k reno][-a mtu[,linger]][-e acks[,delay]][-z seed][-x prefix]
+ * -w, -c, -r, -i, -v, -b, -g, -j, -q, -k, -a, -e and -z configure every simulator as they do the simulators' own main.
+ * RDTDuplex runs send the same lines in both directions; the row describes the forward
+ * direction, except that retransmissions counts both.
+ * With -k and -x, each run's cwnd trace is written to prefix-protocol-pmunge-plost-timeout.csv.
+ * Columns: protocol, pmunge, plost, timeout, lines, delivered, seconds, lines_per_sec,
+ * sent, retransmissions, duplicates, undetected, p50_ms, p99_ms
+ * @author rms
+ *
+ */
+public class ProtocolHarness {
+	/**
+	 * Creates a simulator for one run
+	 */
+	interface Protocol {
+		RTDBase create(double pmunge, double plost, int timeout, int window) throws IOException;
+	}
+	static final Map<String, Protocol> PROTOCOLS = new LinkedHashMap<>();
+	static {
+		PROTOCOLS.put("RDT10", (m, l, t, w) -> new RDT10(m, l, null));
+		PROTOCOLS.put("RDT20", (m, l, t, w) -> new RDT20(m, l, null));
+		PROTOCOLS.put("RDT21", (m, l, t, w) -> new RDT21(m, l, null));
+		PROTOCOLS.put("RDT22", (m, l, t, w) -> new RDT22(m, l, null));
+		PROTOCOLS.put("RDT30", (m, l, t, w) -> new RDT30(m, l, t, null));
+		PROTOCOLS.put("RDTGBN", (m, l, t, w) -> new RDTGBN(m, l, t, w, null));
+		PROTOCOLS.put("RDTSR", (m, l, t, w) -> new RDTSR(m, l, t, w, null));
+		PROTOCOLS.put("RDTDuplex", (m, l, t, w) -> new RDTDuplex(m, l, t, w, null));
+	}
+	/**
+	 * Protocols whose sender uses the timeout
+	 */
+	static final List<String> TIMED = Arrays.asList("RDT30", "RDTGBN", "RDTSR", "RDTDuplex");
+	static final String HEADER = "protocol,pmunge,plost,timeout,lines,delivered,seconds,lines_per_sec,sent,retransmissions,duplicates,undetected,p50_ms,p99_ms";
+
+	private final String[] corpus;
+	private final int lines;
+	private final long limitNanos;
+	private final Object[] options;
+	private String tracePrefix = null;
+
+	/**
+	 * Constructs a harness
+	 * @param corpus	lines sent, repeated as often as needed
+	 * @param lines		number of lines sent by each run
+	 * @param seconds	time limit of each run
+	 * @param options	simulator options returned by RTDBase.argParser
+	 */
+	public ProtocolHarness(String[] corpus, int lines, double seconds, Object[] options) {
+		this.corpus = corpus;
+		this.lines = lines;
+		this.limitNanos = (long)(seconds * 1e9);
+		this.options = options;
+	}
+
+	/**
+	 * Writes the cwnd trace of each run whose congestion controller records one
+	 * @param prefix	start of the trace file names; null for no traces
+	 */
+	public void setTracePrefix(String prefix) {
+		this.tracePrefix = prefix;
+	}
+
+	/**
+	 * Runs one simulation to completion or time limit
+	 * @param protocol	name of a protocol in PROTOCOLS
+	 * @param pmunge	probability of character errors
+	 * @param plost		probability of packet loss
+	 * @param timeout	sender timeout in milliseconds
+	 * @return			CSV row
+	 * @throws IOException			if the simulator cannot be created
+	 * @throws InterruptedException	if interrupted while waiting for the run
+	 */
+	public String run(String protocol, double pmunge, double plost, int timeout) throws IOException, InterruptedException {
+		RTDBase rdt = PROTOCOLS.get(protocol).create(pmunge, plost, timeout, (Integer)options[4]);
+		Run run = new Run();
+		rdt.configure(options);
+		rdt.forward = new CountingChannel(rdt.forward, run.sent);
+		rdt.setAppInput(run.new Workload());
+		rdt.setApplicationSink(run);
+		rdt.setEventListener(run);
+		if (rdt instanceof RDTDuplex) {
+			Run reverse = new Run();
+			((RDTDuplex)rdt).setReverseInput(reverse.new Workload());
+			((RDTDuplex)rdt).setReverseSink(reverse);
+		}
+		run.start = System.nanoTime();
+		rdt.run();
+		long elapsed = run.await(run.start + limitNanos);
+		rdt.stop();
+		if (tracePrefix != null && rdt.congestion instanceof CongestionController.Reno) {
+			try (PrintStream trace = new PrintStream(new FileOutputStream(String.format("%s-%s-%s-%s-%d.csv", tracePrefix, protocol, pmunge, plost, timeout)), false, "UTF-8")) {
+				((CongestionController.Reno)rdt.congestion).writeTrace(trace);
+			}
+		}
+		synchronized (run) {
+			double seconds = elapsed / 1e9;
+			long[] latency = Arrays.copyOf(run.latency, run.delivered);
+			Arrays.sort(latency);
+			return String.format("%s,%s,%s,%d,%d,%d,%.3f,%.1f,%d,%d,%d,%d,%.3f,%.3f", protocol, pmunge, plost,
+					TIMED.contains(protocol) ? timeout : 0, lines, run.delivered, seconds, run.delivered / seconds,
+					run.sent.get(), run.retransmissions.get(), run.duplicates, run.undetected,
+					percentile(latency, 0.50) / 1e6, percentile(latency, 0.99) / 1e6);
+		}
+	}
+
+	/**
+	 * @param sorted	ascending values
+	 * @param q			quantile in (0, 1]
+	 * @return			smallest value with at least q of the values at or below it; NaN if none
+	 */
+	static double percentile(long[] sorted, double q) {
+		if (sorted.length == 0) return Double.NaN;
+		return sorted[Math.max(0, (int)Math.ceil(q * sorted.length) - 1)];
+	}
+
+	/**
+	 * State of one run: lines handed to the sender, packets it sent and resent, and lines
+	 * delivered by the receiver.
+	 * Line i of a run is sent as "i text", where text is corpus line i modulo its length.
+	 */
+	class Run implements ApplicationSink, RdtEventListener {
+		final AtomicLong sent = new AtomicLong(), retransmissions = new AtomicLong();
+		final long[] readAt = new long[lines], latency = new long[lines];
+		final boolean[] seen = new boolean[lines];
+		long start, finish;
+		int read, delivered, duplicates, undetected;
+
+		@Override
+		public synchronized void deliver(String dat) {
+			long now = System.nanoTime();
+			int space = dat.indexOf(' ');
+			int i;
+			try {
+				i = Integer.parseInt(dat.substring(0, space));
+			} catch (RuntimeException e) {
+				undetected++;
+				return;
+			}
+			if (i < 0 || i >= read || !dat.substring(space + 1).equals(corpus[i % corpus.length])) {
+				undetected++;
+			} else if (seen[i]) {
+				duplicates++;
+			} else {
+				seen[i] = true;
+				latency[delivered++] = now - readAt[i];
+				if (delivered == lines) {
+					finish = now;
+					notifyAll();
+				}
+			}
+		}
+		@Override
+		public void retransmitted(int state, TracedPacket packet) {
+			retransmissions.incrementAndGet();
+		}
+		/**
+		 * Waits for every line to be delivered, or until deadline
+		 * @return	nanoseconds from start to last delivery, or to deadline
+		 */
+		synchronized long await(long deadline) throws InterruptedException {
+			for (long left; delivered < lines && (left = deadline - System.nanoTime()) > 0; ) {
+				wait(left / 1000000, (int)(left % 1000000));
+			}
+			return (delivered == lines ? finish : deadline) - start;
+		}
+
+		/**
+		 * Sender input producing the run's lines; blocks once all are read
+		 */
+		class Workload extends BufferedReader {
+			Workload() {
+				super(Reader.nullReader());
+			}
+			@Override
+			public String readLine() throws IOException {
+				synchronized (Run.this) {
+					try {
+						while (read == lines) Run.this.wait();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+					readAt[read] = System.nanoTime();
+					String dat = read + " " + corpus[read % corpus.length];
+					read++;
+					return dat;
+				}
+			}
+			@Override
+			public boolean ready() {
+				synchronized (Run.this) {
+					return read < lines;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Channel counting the packets sent through another
+	 */
+	static class CountingChannel implements Channel {
+		private final Channel channel;
+		private final AtomicLong sent;
+		CountingChannel(Channel channel, AtomicLong sent) {
+			this.channel = channel;
+			this.sent = sent;
+		}
+		public void send(String s) {
+			sent.incrementAndGet();
+			channel.send(s);
+		}
+		public void send(PacketType packet) {
+			sent.incrementAndGet();
+			channel.send(packet);
+		}
+		public void send(ByteBuffer frame) {
+			sent.incrementAndGet();
+			channel.send(frame);
+		}
+		public String receive() throws IOException {
+			return channel.receive();
+		}
+		public int receive(ByteBuffer dst) throws IOException {
+			return channel.receive(dst);
+		}
+		public void run() {
+			channel.run();
+		}
+		public boolean needsThread() {
+			return channel.needsThread();
+		}
+	}
+
+	private static double[] doubles(String list) {
+		return Arrays.stream(list.split(",")).mapToDouble(Double::parseDouble).toArray();
+	}
+	private static int[] ints(String list) {
+		return Arrays.stream(list.split(",")).mapToInt(Integer::parseInt).toArray();
+	}
+	/**
+	 * @return	40 lines of 60 printable characters, the same on every call
+	 */
+	static String[] defaultCorpus() {
+		SplittableRandom rnd = new SplittableRandom(0);
+		String[] corpus = new String[40];
+		for (int i = 0; i < corpus.length; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int j = 0; j < 60; j++) sb.append((char)(32 + rnd.nextInt(95)));
+			corpus[i] = sb.toString();
+		}
+		return corpus;
+	}
+
+	/**
+	 * Runs the matrix
+	 * @param args	see class description
+	 * @throws IOException			if the corpus or output cannot be opened
+	 * @throws InterruptedException	if interrupted
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String[] protocols = {"RDT10", "RDT20", "RDT21", "RDT22", "RDT30"};
+		double[] pmunge = {0.0, 0.01, 0.05}, plost = {0.0, 0.05};
+		int[] timeouts = {50, 200};
+		int lines = 500;
+		double seconds = 10;
+		String corpusFile = null, outFile = null, tracePrefix = null;
+		List<String> simulator = new ArrayList<>();
+		Object[] options;
+		try {
+			for (int idx = 0; idx < args.length; idx++) {
+				switch (args[idx]) {
+				case "-p": protocols = args[++idx].split(","); break;
+				case "-m": pmunge = doubles(args[++idx]); break;
+				case "-l": plost = doubles(args[++idx]); break;
+				case "-t": timeouts = ints(args[++idx]); break;
+				case "-n": lines = Integer.parseInt(args[++idx]); break;
+				case "-d": seconds = Double.parseDouble(args[++idx]); break;
+				case "-f": corpusFile = args[++idx]; break;
+				case "-o": outFile = args[++idx]; break;
+				case "-x": tracePrefix = args[++idx]; break;
+				case "-w": case "-c": case "-b": case "-g": case "-j": case "-q": case "-k": case "-a": case "-e": case "-z": simulator.add(args[idx]); simulator.add(args[++idx]); break;
+				case "-r": case "-i": case "-v": simulator.add(args[idx]); break;
+				default: throw new IllegalArgumentException(args[idx]);
+				}
+			}
+			for (String p : protocols) if (!PROTOCOLS.containsKey(p)) throw new IllegalArgumentException(p);
+			options = RTDBase.argParser("ProtocolHarness", simulator.toArray(new String[0]));
+		} catch (Exception ex) {
+			System.out.println("Usage: java ProtocolHarness [-p RDT10,RDT20,...][-m pmunge,...][-l ploss,...][-t timeout,...][-n lines][-d seconds][-f corpus][-o file.csv][-w window][-c checksum][-r][-i][-v][-b rate][-g delay][-j jitter][-q queue][-k reno][-a mtu[,linger]][-e acks[,delay]][-z seed][-x prefix]");
+			return;
+		}
+		String[] corpus = corpusFile == null ? defaultCorpus()
+				: Files.readAllLines(new File(System.getenv("user.dir"), corpusFile).toPath(), StandardCharsets.UTF_8).toArray(new String[0]);
+		ProtocolHarness harness = new ProtocolHarness(corpus, lines, seconds, options);
+		harness.setTracePrefix(tracePrefix);
+		PrintStream console = System.out;
+		PrintStream csv = outFile == null ? console : new PrintStream(new FileOutputStream(outFile), true, "UTF-8");
+		csv.println(HEADER);
+		try {
+			for (String protocol : protocols) {
+				int[] ts = TIMED.contains(protocol) ? timeouts : new int[] {0};
+				for (double m : pmunge) for (double l : plost) for (int t : ts) {
+					csv.println(harness.run(protocol, m, l, t));
+				}
+			}
+		} finally {
+			if (csv != console) csv.close();
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package TCP;
 import java.io.IOException;
+
+import TCP.RdtEventListener.Side;
 /**
  * Implements simulator using rdt1.0 protocol
  * 
@@ -27,9 +29,16 @@ public class RDT10 extends RTDBase {
 		sender = new RSender10();
 		receiver = new RReceiver10();
 	}
+	/**
+	 * @return	false: a line is lost with its packet, so no latency is recorded
+	 */
+	@Override
+	protected boolean deliversInOrder() {
+		return false;
+	}
 	/**
 	 * Packet appropriate for rdt1.0;
-	 * contains data and checksum
+	 * contains data and checksum, preceded by the tag of its checksum algorithm
 	 * @author rms
 	 *
 	 */
@@ -37,16 +46,24 @@ public class RDT10 extends RTDBase {
 		protected String checksum;
 		protected String data;
 		/**
-		 * Constructs a packet out of data with computed checksum
+		 * Constructs a packet out of data with computed Internet checksum
 		 * @param data	content of this packet
 		 */
 		public Packet(String data){
-			this(data, CkSum.genCheck(data));
+			this(data, Checksum.INTERNET);
+		}
+		/**
+		 * Constructs a packet out of data with checksum computed by algorithm
+		 * @param data		content of this packet
+		 * @param algorithm	checksum algorithm
+		 */
+		public Packet(String data, Checksum algorithm){
+			this(data, algorithm.field(data));
 		}
 		/**
 		 * Constructs a packet out of data with assigned checksum
 		 * @param data	content of this packet
-		 * @param checksum	assigned checksum	
+		 * @param checksum	assigned checksum field: hex digits, preceded by the algorithm tag unless INTERNET
 		 */
 		public Packet(String data, String checksum) {
 			this.data = data;
@@ -58,8 +75,9 @@ public class RDT10 extends RTDBase {
 		 * @return	packet constructed from data
 		 */
 		public static Packet deserialize(String data) {
-			String hex = data.substring(0, 4);
-			String dat = data.substring(4);
+			int n = Checksum.fieldLength(data);
+			String hex = data.substring(0, n);
+			String dat = data.substring(n);
 			return new Packet(dat, hex);
 		}
 		@Override
@@ -74,14 +92,14 @@ public class RDT10 extends RTDBase {
 		 * Implements isCorrupt method of PacketType
 		 */
 		public boolean isCorrupt() {
-			return !CkSum.checkString(data, checksum);
+			return !Checksum.verify(data, checksum);
 		}
 		@Override
 		/**
 		 * For printing in output log
 		 */
 		public String toString() {
-			return String.format("%s (%s/%s)", data, checksum, CkSum.genCheck(data));
+			return String.format("%s (%s/%s)", data, checksum, Checksum.recompute(data, checksum));
 		}
 	}
 
@@ -97,7 +115,9 @@ public class RDT10 extends RTDBase {
 			switch(myState) {
 			case 0:
 				String dat = getFromApp(0);
-				forward.send(new Packet(dat));
+				Packet packet = new Packet(dat, checksum);
+				events.sent(0, 0, packet);
+				forward.send(packet);
 				return 0;
 			}
 			return myState;				
@@ -116,6 +136,8 @@ public class RDT10 extends RTDBase {
 			case 0:
 				String dat = forward.receive();
 				Packet packet = Packet.deserialize(dat);
+				events.received(Side.RECEIVER, myState, packet);
+				events.delivered(0, 0, packet);
 				deliverToApp(packet.data);
 				return 0;
 			}
@@ -124,12 +146,14 @@ public class RDT10 extends RTDBase {
 	}
 	/**
 	 * Runs rdt1.0 simulation
-	 * @param args	[-m pmunge][-l ploss][-f filename]
+	 * @param args	[-m pmunge][-l ploss][-f filename][-c checksum][-r][-i][-v][-b rate][-g delay][-j jitter][-q queue][-a mtu[,linger]][-z seed][-y]
 	 * @throws IOException	if i/o error occurs
 	 */
 	public static void main(String[] args) throws IOException {
 		Object[] pargs = argParser("RDT10", args);
 		RDT10 rdt10 = new RDT10((Double)pargs[0], (Double)pargs[1], (String)pargs[3]);
+		rdt10.setEventListener(new TraceListener());
+		rdt10.configure(pargs);
 		rdt10.run();
 	}
 }
\ No newline at end of file
@@ -1,6 +1,8 @@
 package TCP;
 import java.io.IOException;
 
+import TCP.RdtEventListener.Side;
+
 /**
  * Implements simulator using rdt2.0 protocol
  * 
@@ -28,6 +30,14 @@ public class RDT20 extends RTDBase {
 		sender = new RSender20();
 		receiver = new RReceiver20();
 	}
+	/**
+	 * @return	false: a corrupt ACK makes the receiver deliver the line again, so no
+	 * 			latency is recorded
+	 */
+	@Override
+	protected boolean deliversInOrder() {
+		return false;
+	}
 
 	/**
 	 * Packet appropriate for rdt2.0;
@@ -42,10 +52,12 @@ public class RDT20 extends RTDBase {
 		public Packet(String data, String checksum) {
 			super(data, checksum);
 		}
+		public Packet(String data, Checksum algorithm){
+			super(data, algorithm);
+		}
 		public static Packet deserialize(String data) {
-			String hex = data.substring(0, 4);
-			String dat = data.substring(4);
-			return new Packet(dat, hex);
+			RDT10.Packet p = RDT10.Packet.deserialize(data);
+			return new Packet(p.data, p.checksum);
 		}
 	}
 
@@ -61,24 +73,22 @@ public class RDT20 extends RTDBase {
 			switch(myState) {
 			case 0:
 				String dat = getFromApp(0);
-				packet = new Packet(dat);
-				System.out.printf("Sender(%d): %s\n", myState, packet.toString());
-				System.out.printf(" **Sender(0->1):\n");
+				packet = new Packet(dat, checksum);
+				events.sent(0, 1, packet);
 				forward.send(packet);
-				//printSender(myState, 1, packet.data, packet.checksum,"");
 				return 1;
 				
 			case 1: 
 				Packet backwardPacket = Packet.deserialize(backward.receive());
-				System.out.printf(" **Sender(%d): %s ***\n", myState, backwardPacket.toString());
-				if(backwardPacket.data.equals("ACK") && !backwardPacket.isCorrupt()){
-					//printSender(myState, 0, backwardPacket.data, backwardPacket.checksum, "");
-					System.out.printf(" **Sender(1->0)\n");
+				events.received(Side.SENDER, myState, backwardPacket);
+				if (backwardPacket.isCorrupt()) {
+					events.corrupt(Side.SENDER, 1, 1, backwardPacket);
+				} else if (backwardPacket.data.equals("ACK")) {
+					events.acked(1, 0, backwardPacket);
 					return 0;
 				}
-				System.out.printf(" **Sender(1->1): NAK or corrupt acknowledgement; resending ***\n");
+				events.retransmitted(1, packet);
 				forward.send(packet);
-				//printSender(myState, 1, backwardPacket.data, backwardPacket.checksum, "");
 				return 1;
 				
 			}
@@ -100,18 +110,19 @@ public class RDT20 extends RTDBase {
 			case 0:
 				String dat = forward.receive();
 				Packet packet = Packet.deserialize(dat);
-				System.out.printf("\t **Receiver(%d): %s **\n", myState, packet.toString());
+				events.received(Side.RECEIVER, myState, packet);
+				Packet reply;
 				if(!packet.isCorrupt()){
-					System.out.printf("\t **Receiver(0->0): ok data; replying ACK **\n");
+					events.delivered(0, 0, packet);
 					deliverToApp(packet.data);
-					//printRec(0, 0, packet.data, packet.checksum, "", false, false);
-					backward.send(new Packet("ACK"));
+					reply = new Packet("ACK", checksum);
 				}
 				else{
-					//printRec(0, 0, packet.data, packet.checksum, "", true, false);
-					System.out.printf("\t **Receiver(0->0): corrupt data; replying NAK **\n");
-					backward.send(new Packet("NAK"));
+					events.corrupt(Side.RECEIVER, 0, 0, packet);
+					reply = new Packet("NAK", checksum);
 				}
+				events.replied(0, reply);
+				backward.send(reply);
 				return 0;
 			}
 			return myState;
@@ -120,12 +131,14 @@ public class RDT20 extends RTDBase {
 
 	/**
 	 * Runs rdt2.0 simulation
-	 * @param args	[-m pmunge][-l ploss][-f filename]
+	 * @param args	[-m pmunge][-l ploss][-f filename][-c checksum][-r][-i][-v][-b rate][-g delay][-j jitter][-q queue][-a mtu[,linger]][-z seed][-y]
 	 * @throws IOException	if i/o error occurs
 	 */
 	public static void main(String[] args) throws IOException {
 		Object[] pargs = argParser("RDT20", args);
 		RDT20 rdt20 = new RDT20((Double)pargs[0], (Double)pargs[1], (String)pargs[3]);
+		rdt20.setEventListener(new TraceListener());
+		rdt20.configure(pargs);
 		rdt20.run();
 	}
 
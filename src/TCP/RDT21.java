@@ -1,6 +1,8 @@
 package TCP;
 import java.io.IOException;
 
+import TCP.RdtEventListener.Side;
+
 import TCP.RDT20.Packet;
 
 
@@ -51,18 +53,35 @@ public class RDT21 extends RTDBase {
 			this(data, " ");
 		}
 		/**
-		 * Constructs a packet out of data and seqnum with computed checksum
+		 * Constructs a packet out of data with empty seqnum and checksum computed by algorithm
+		 * @param data		content of this packet
+		 * @param algorithm	checksum algorithm
+		 */
+		public Packet(String data, Checksum algorithm){
+			this(data, " ", algorithm);
+		}
+		/**
+		 * Constructs a packet out of data and seqnum with computed Internet checksum
 		 * @param data	content of this packet
 		 * @param seqnum	sequence number assigned to this packet
 		 */
 		public Packet(String data, String seqnum){
-			this(data, seqnum, CkSum.genCheck(seqnum+data));
+			this(data, seqnum, Checksum.INTERNET);
+		}
+		/**
+		 * Constructs a packet out of data and seqnum with checksum computed by algorithm
+		 * @param data		content of this packet
+		 * @param seqnum	sequence number assigned to this packet
+		 * @param algorithm	checksum algorithm
+		 */
+		public Packet(String data, String seqnum, Checksum algorithm){
+			this(data, seqnum, algorithm.field(seqnum+data));
 		}
 		/**
 		 * Constructs a packet out of data and seqnum with assigned checksum
 		 * @param data	content of this packet
 		 * @param seqnum	sequence number assigned to this packet
-		 * @param checksum	assigned checksum	
+		 * @param checksum	assigned checksum field: hex digits, preceded by the algorithm tag unless INTERNET
 		 */
 		public Packet(String data, String seqnum, String checksum) {
 			this.data = data;
@@ -75,9 +94,10 @@ public class RDT21 extends RTDBase {
 		 * @return	packet constructed from data
 		 */
 		public static Packet deserialize(String data) {
-			String hex = data.substring(0, 4);
-			String seqnum = data.substring(4,5);
-			String dat = data.substring(5);
+			int n = Checksum.fieldLength(data);
+			String hex = data.substring(0, n);
+			String seqnum = data.substring(n, Math.min(n+1, data.length()));
+			String dat = data.substring(Math.min(n+1, data.length()));
 			return new Packet(dat, seqnum, hex);
 		}
 		@Override
@@ -86,14 +106,14 @@ public class RDT21 extends RTDBase {
 		}
 		@Override
 		public boolean isCorrupt() {
-			return !CkSum.checkString(seqnum+data, checksum);
+			return !Checksum.verify(seqnum+data, checksum);
 		}
 		@Override
 		/**
 		 * For printing in output log
 		 */
 		public String toString() {
-			return String.format("%s %s (%s/%s)", data, seqnum, checksum, CkSum.genCheck(seqnum+data));
+			return String.format("%s %s (%s/%s)", data, seqnum, checksum, Checksum.recompute(seqnum+data, checksum));
 		}
 	}
 	/**
@@ -110,36 +130,38 @@ public class RDT21 extends RTDBase {
 			switch(myState) {
 			case 0:
 				dat = getFromApp(0);
-				packet = new Packet(dat, "0");
-				System.out.printf("Sender(%d): %s\n", myState, packet.toString());
-				System.out.printf(" **Sender(0->1)\n");
+				packet = new Packet(dat, "0", checksum);
+				events.sent(0, 1, packet);
 				forward.send(packet);
 				return 1;
 			case 1:
 				backwardPacket = Packet.deserialize(backward.receive());
-				System.out.printf(" **Sender(%d): %s **\n", myState, backwardPacket.toString());
-				if(backwardPacket.data.equals("ACK") && !backwardPacket.isCorrupt()){
-					System.out.printf(" **Sender(1->2)\n");
+				events.received(Side.SENDER, myState, backwardPacket);
+				if (backwardPacket.isCorrupt()) {
+					events.corrupt(Side.SENDER, 1, 1, backwardPacket);
+				} else if (backwardPacket.data.equals("ACK")) {
+					events.acked(1, 2, backwardPacket);
 					return 2;
 				}
-				System.out.printf(" **Sender(1->1): NAK or corrupt acknowledgement; resending **\n", myState);
-				//printSender(myState, 1, backwardPacket.data, backwardPacket.checksum, backwardPacket.seqnum);
+				events.retransmitted(1, packet);
 				forward.send(packet);
 				return 1;
 			case 2:
 				dat = getFromApp(0);
-				packet = new Packet(dat, "1");
-				System.out.printf("Sender(%d): %s\n", myState, packet.toString());
+				packet = new Packet(dat, "1", checksum);
+				events.sent(2, 3, packet);
 				forward.send(packet);
 				return 3;
 			case 3:
 				backwardPacket = Packet.deserialize(backward.receive());
-				System.out.printf(" **Sender(%d): %s **\n", myState, backwardPacket.toString());
-				if(backwardPacket.data.equals("ACK") && !backwardPacket.isCorrupt()){
-					System.out.printf(" **Sender(3->0)\n");
+				events.received(Side.SENDER, myState, backwardPacket);
+				if (backwardPacket.isCorrupt()) {
+					events.corrupt(Side.SENDER, 3, 3, backwardPacket);
+				} else if (backwardPacket.data.equals("ACK")) {
+					events.acked(3, 0, backwardPacket);
 					return 0;
 				}
-				System.out.printf(" **Sender(3->3): NAK or corrupt acknowledgement; resending **\n", myState);
+				events.retransmitted(3, packet);
 				forward.send(packet);
 				return 3;
 			}
@@ -156,50 +178,54 @@ public class RDT21 extends RTDBase {
 		@Override
 		public int loop(int myState) throws IOException {
 			String dat;
-			Packet packet;
+			Packet packet, reply;
 			switch (myState) {
 			case 0: 
 				dat = forward.receive();
 				packet = Packet.deserialize(dat);
-				System.out.printf("\t **Receiver(%d): %s **\n", myState, packet.toString());
+				events.received(Side.RECEIVER, myState, packet);
 				if(!packet.isCorrupt()){
+					reply = new Packet("ACK", checksum);
 					if(packet.seqnum.equals("1")){
-						System.out.printf("\t **Receiver(0->0): duplicate 1 packet; discarding; replying ACK **\n");
-						backward.send(new Packet("ACK"));
+						events.duplicate(Side.RECEIVER, 0, 0, packet, false);
+						events.replied(0, reply);
+						backward.send(reply);
 						return 0;
 					}
-	
-					System.out.printf("\t **Receiver(0->1): ok 0 data; replying ACK **\n");
+					events.delivered(0, 1, packet);
 					deliverToApp(packet.data);
-					//printRec(myState, 1, packet.data, packet.checksum, packet.seqnum, false, false);
-					backward.send(new Packet("ACK"));
+					events.replied(0, reply);
+					backward.send(reply);
 					return 1;
 				}
-				//printRec(myState, 0, packet.data, packet.checksum, packet.seqnum, false, true);
-				System.out.printf("\t **Receiver(0->0): corrupt data; replying NAK **\n");
-				backward.send(new Packet("NAK"));
+				events.corrupt(Side.RECEIVER, 0, 0, packet);
+				reply = new Packet("NAK", checksum);
+				events.replied(0, reply);
+				backward.send(reply);
 				return 0;
 
 			case 1:
 				dat = forward.receive();
 				packet = Packet.deserialize(dat);
-				System.out.printf("\t **Receiver(%d): %s **\n", myState, packet.toString());
+				events.received(Side.RECEIVER, myState, packet);
 				if(!packet.isCorrupt()){
+					reply = new Packet("ACK", checksum);
 					if(packet.seqnum.equals("0")){
-						System.out.printf("\t **Receiver(1->1): duplicate 0 packet; discarding; replying ACK **\n");
-						backward.send(new Packet("ACK"));
+						events.duplicate(Side.RECEIVER, 1, 1, packet, false);
+						events.replied(1, reply);
+						backward.send(reply);
 						return 1;
 					}
-					System.out.printf("\t **Receiver(1->0): ok 1 data; replying ACK **\n");
+					events.delivered(1, 0, packet);
 					deliverToApp(packet.data);
-					//printRec(myState, 0, packet.data, packet.checksum, packet.seqnum, false, false);
-					
-					backward.send(new Packet("ACK"));
+					events.replied(1, reply);
+					backward.send(reply);
 					return 0;
 				}
-				System.out.printf("\t **Receiver(1->1): ** corrupt data; replying NAK **\n");
-				//printRec(myState, 1, packet.data, packet.checksum, packet.seqnum, false, true);
-				backward.send(new Packet("NAK"));
+				events.corrupt(Side.RECEIVER, 1, 1, packet);
+				reply = new Packet("NAK", checksum);
+				events.replied(1, reply);
+				backward.send(reply);
 				return 1;
 			}
 			return myState;
@@ -208,12 +234,14 @@ public class RDT21 extends RTDBase {
 
 	/**
 	 * Runs rdt2.1 simulation
-	 * @param args	[-m pmunge][-l ploss][-f filename]
+	 * @param args	[-m pmunge][-l ploss][-f filename][-c checksum][-r][-i][-v][-b rate][-g delay][-j jitter][-q queue][-a mtu[,linger]][-z seed][-y]
 	 * @throws IOException	if i/o error occurs
 	 */
 	public static void main(String[] args) throws IOException {
 		Object[] pargs = argParser("RDT21", args);
 		RDT21 rdt21 = new RDT21((Double)pargs[0], (Double)pargs[1], (String)pargs[3]);
+		rdt21.setEventListener(new TraceListener());
+		rdt21.configure(pargs);
 		rdt21.run();
 	}
 
@@ -1,6 +1,8 @@
 package TCP;
 import java.io.IOException;
 
+import TCP.RdtEventListener.Side;
+
 import TCP.RDT21.Packet;
 import TCP.RTDBase.RReceiver;
 import TCP.RTDBase.RSender;
@@ -49,11 +51,15 @@ public class RDT22 extends RTDBase {
 		public Packet(String data, String seqnum, String checksum) {
 			super(data, seqnum, checksum);
 		}
+		public Packet(String data, Checksum algorithm){
+			super(data, algorithm);
+		}
+		public Packet(String data, String seqnum, Checksum algorithm){
+			super(data, seqnum, algorithm);
+		}
 		public static Packet deserialize(String data) {
-			String hex = data.substring(0, 4);
-			String seqnum = data.substring(4,5);
-			String dat = data.substring(5);
-			return new Packet(dat, seqnum, hex);
+			RDT21.Packet p = RDT21.Packet.deserialize(data);
+			return new Packet(p.data, p.seqnum, p.checksum);
 		}
 	}
 
@@ -71,43 +77,42 @@ public class RDT22 extends RTDBase {
 			switch(myState) {
 			case 0:
 				dat = getFromApp(0);
-				packet = new Packet(dat, "0");
-
-				System.out.printf("Sender(%d): %s\n", myState, packet.toString());
-				System.out.printf(" **Sender(0->1) \n");
-				//printSender(myState, 1, packet.data, packet.checksum, packet.seqnum);
+				packet = new Packet(dat, "0", checksum);
+				events.sent(0, 1, packet);
 				forward.send(packet);
 				return 1;
 			case 1:
 				backwardPacket = Packet.deserialize(backward.receive());
-				System.out.printf(" **Sender(%d): %s **\n", myState, backwardPacket.toString());
-				if(backwardPacket.data.equals("ACK") && !backwardPacket.isCorrupt() && backwardPacket.seqnum.equals("0")){
-					//printSender(myState, 2, backwardPacket.data, backwardPacket.checksum, backwardPacket.seqnum);
-					System.out.printf(" **Sender(1->2)\n");
+				events.received(Side.SENDER, myState, backwardPacket);
+				if (backwardPacket.isCorrupt()) {
+					events.corrupt(Side.SENDER, 1, 1, backwardPacket);
+				} else if (backwardPacket.data.equals("ACK") && backwardPacket.seqnum.equals("0")) {
+					events.acked(1, 2, backwardPacket);
 					return 2;
+				} else {
+					events.duplicate(Side.SENDER, 1, 1, backwardPacket, true);
 				}
-				System.out.printf(" **Sender(1->1): wrong or corrupt acknowledgement; resending **\n", myState);
-				//printSender(myState, 1, backwardPacket.data, backwardPacket.checksum, backwardPacket.seqnum);
+				events.retransmitted(1, packet);
 				forward.send(packet);
 				return 1;
 			case 2:
 				dat = getFromApp(0);
-				packet = new Packet(dat, "1");
-				System.out.printf("Sender(%d): %s\n", myState, packet.toString());
-				System.out.printf(" **Sender(2->3)\n");
-				//printSender(myState, 3, packet.data, packet.checksum, packet.seqnum);
+				packet = new Packet(dat, "1", checksum);
+				events.sent(2, 3, packet);
 				forward.send(packet);
 				return 3;
 			case 3:
 				backwardPacket = Packet.deserialize(backward.receive());
-				System.out.printf(" **Sender(%d): %s **\n", myState, backwardPacket.toString());
-				if(backwardPacket.data.equals("ACK") && !backwardPacket.isCorrupt() && backwardPacket.seqnum.equals("1")){
-					//printSender(myState, 0, backwardPacket.data, backwardPacket.checksum, backwardPacket.seqnum);
-					System.out.printf(" **Sender(3->0)\n");
+				events.received(Side.SENDER, myState, backwardPacket);
+				if (backwardPacket.isCorrupt()) {
+					events.corrupt(Side.SENDER, 3, 3, backwardPacket);
+				} else if (backwardPacket.data.equals("ACK") && backwardPacket.seqnum.equals("1")) {
+					events.acked(3, 0, backwardPacket);
 					return 0;
+				} else {
+					events.duplicate(Side.SENDER, 3, 3, backwardPacket, true);
 				}
-				//printSender(myState, 3, backwardPacket.data, backwardPacket.checksum, backwardPacket.seqnum);
-				System.out.printf(" **Sender(3->3): wrong or corrupt acknowledgement; resending **\n", myState);
+				events.retransmitted(3, packet);
 				forward.send(packet);
 				return 3;
 			}
@@ -124,65 +129,74 @@ public class RDT22 extends RTDBase {
 		@Override
 		public int loop(int myState) throws IOException {
 			String dat;
-			Packet packet;
+			Packet packet, reply;
 			switch (myState) {
 			case 0: 
 				dat = forward.receive();
 				packet = Packet.deserialize(dat);
-				System.out.printf("\t **Receiver(%d): %s **\n", myState, packet.toString());
+				events.received(Side.RECEIVER, myState, packet);
 				if(!packet.isCorrupt()){
 					if(packet.seqnum.equals("1")){
-						System.out.printf("\t **Receiver(0->0): duplicate 1 packet; discarding; replying ACK/1 **\n");
-						backward.send(new Packet("ACK", "1"));
+						events.duplicate(Side.RECEIVER, 0, 0, packet, false);
+						reply = new Packet("ACK", "1", checksum);
+						events.replied(0, reply);
+						backward.send(reply);
 						return 0;
 					}
-					//printRec(0, 1, packet.data, packet.checksum, packet.seqnum, false, false);
-					System.out.printf("\t **Receiver(0->1): ok 0 data; replying ACK/0 **\n");
+					events.delivered(0, 1, packet);
 					deliverToApp(packet.data);
-					backward.send(new Packet("ACK", "0"));
+					reply = new Packet("ACK", "0", checksum);
+					events.replied(0, reply);
+					backward.send(reply);
 					return 1;
 				}
 
-				//printRec(0, 0, packet.data, packet.checksum, packet.seqnum, true, false);
-				System.out.printf("\t **Receiver(0->0): corrupt data; replying ACK/1 **\n");
-				backward.send(new Packet("ACK", "1"));
+				events.corrupt(Side.RECEIVER, 0, 0, packet);
+				reply = new Packet("ACK", "1", checksum);
+				events.replied(0, reply);
+				backward.send(reply);
 				return 0;
 
 			case 1:
 				dat = forward.receive();
 				packet = Packet.deserialize(dat);
-				System.out.printf("\t **Receiver(%d): %s **\n", myState, packet.toString());
+				events.received(Side.RECEIVER, myState, packet);
 				if(!packet.isCorrupt()){
 					if(packet.seqnum.equals("0")){
-						System.out.printf("\t **Receiver(1->1): duplicate 0 packet; discarding; replying ACK/0 **\n");
-						backward.send(new Packet("ACK", "0"));
+						events.duplicate(Side.RECEIVER, 1, 1, packet, false);
+						reply = new Packet("ACK", "0", checksum);
+						events.replied(1, reply);
+						backward.send(reply);
 						return 1;
 					}
-					//printRec(1, 0, packet.data, packet.checksum, packet.seqnum, false, false);
-					System.out.printf("\t **Receiver(1->0): ok 1 data; replying ACK/1 **\n");
+					events.delivered(1, 0, packet);
 					deliverToApp(packet.data);
-					backward.send(new Packet("ACK", "1"));
+					reply = new Packet("ACK", "1", checksum);
+					events.replied(1, reply);
+					backward.send(reply);
 					return 0;
 				}
 
-				//printRec(1, 1, packet.data, packet.checksum, packet.seqnum, true, false);
-				System.out.printf("\t **Receiver(1->1): corrupt data; replying ACK/0 **\n");
-				backward.send(new Packet("ACK", "0"));
+				events.corrupt(Side.RECEIVER, 1, 1, packet);
+				reply = new Packet("ACK", "0", checksum);
+				events.replied(1, reply);
+				backward.send(reply);
 				return 1;
 			}
 			return myState;
 		}
 	}
 
-
 	/**
 	 * Runs rdt2.2 simulation
-	 * @param args	[-m pmunge][-l ploss][-f filename]
+	 * @param args	[-m pmunge][-l ploss][-f filename][-c checksum][-r][-i][-v][-b rate][-g delay][-j jitter][-q queue][-a mtu[,linger]][-z seed][-y]
 	 * @throws IOException	if i/o error occurs
 	 */
 	public static void main(String[] args) throws IOException {
 		Object[] pargs = argParser("RDT22", args);
 		RDT22 rdt22 = new RDT22((Double)pargs[0], (Double)pargs[1], (String)pargs[3]);
+		rdt22.setEventListener(new TraceListener());
+		rdt22.configure(pargs);
 		rdt22.run();
 	}
 
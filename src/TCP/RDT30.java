@@ -2,6 +2,7 @@ package TCP;
 import java.io.IOException;
 
 import TCP.RDT22.Packet;
+import TCP.RdtEventListener.Side;
 import TCP.TUChannel.TimedOutException;
 
 /**
@@ -11,18 +12,27 @@ import TCP.TUChannel.TimedOutException;
  *
  */
 public class RDT30 extends RTDBase {
+	/**
+	 * Smallest and largest retransmission timeouts in milliseconds
+	 */
+	static final int MIN_RTO = 10, MAX_RTO = 60000;
 	int timeout;
+	/**
+	 * Source of the sender's retransmission timeout
+	 */
+	final RttEstimator rtt;
 	/**
 	 * Constructs an RDT22 simulator with given munge factor, loss factor and file feed
 	 * @param pmunge		probability of character errors
 	 * @param plost			probability of packet loss
-	 * @param timeout		receive timeout in milliseconds 
+	 * @param timeout		initial receive timeout in milliseconds; later timeouts adapt to measured round-trip times
 	 * @param filename		file used for automatic data feed
 	 * @throws IOException	if channel transmissions fail
 	 */
 	public RDT30(double pmunge, double plost, int timeout, String filename) throws IOException {
 		super(pmunge, plost, filename);
 		this.timeout = timeout;
+		rtt = new RttEstimator(timeout, MIN_RTO, MAX_RTO);
 		backward = new TUChannel(pmunge, plost);
 		sender = new RSender30();
 		receiver = new RReceiver30();
@@ -44,21 +54,39 @@ public class RDT30 extends RTDBase {
 		public Packet(String data, String seqnum, String checksum) {
 			super(data, seqnum, checksum);
 		}
+		public Packet(String data, Checksum algorithm){
+			super(data, algorithm);
+		}
+		public Packet(String data, String seqnum, Checksum algorithm){
+			super(data, seqnum, algorithm);
+		}
 		public static Packet deserialize(String data) {
-			String hex = data.substring(0, 4);
-			String seqnum = data.substring(4,5);
-			String dat = data.substring(5);
-			return new Packet(dat, seqnum, hex);
+			RDT21.Packet p = RDT21.Packet.deserialize(data);
+			return new Packet(p.data, p.seqnum, p.checksum);
 		}
 	}
 
 	/**
-	 * RSender Class implementing rdt3.0 protocol
+	 * @return	current retransmission timeout in milliseconds
+	 */
+	public int getRto() {
+		return rtt.getRto();
+	}
+
+	/**
+	 * RSender Class implementing rdt3.0 protocol.
+	 * Every timer runs for the RTO of rtt, which times each packet from its first
+	 * sending to its ACK.
+	 * A duplicate ACK is answered by resending unless StaleReplies counts it as the
+	 * reply to a copy of the previous packet; see there for the cost of that choice.
+	 * EventRdt.StopAndWait runs the same sender in virtual time, so a fix to one
+	 * belongs in the other.
 	 * @author rms
 	 *
 	 */
 	public class RSender30 extends RSender {
 		Packet packet = null;
+		StaleReplies stale = new StaleReplies();
 		TUChannel backward = (TUChannel)RDT30.this.backward;
 		@Override
 		public int loop(int myState) throws IOException {
@@ -68,68 +96,88 @@ public class RDT30 extends RTDBase {
 			switch(myState) {
 			case 0:
 				dat = getFromApp(0);
-				packet = new Packet(dat, "0");
-
-				System.out.printf("Sender(%d): %s\n", myState, packet.toString());
-				System.out.printf(" **Sender(0->1)\n");
-				//printSender(myState, 1, packet.data, packet.checksum, packet.seqnum);
+				packet = new Packet(dat, "0", checksum);
+				events.sent(0, 1, packet);
+				rtt.sent();
+				stale.sent();
 				forward.send(packet);
 				return 1;
 			case 1:
-				backward.startTimer(timeout);
-				/// TIMER HERE
+				backward.startTimer(rtt.getRto());
 				try{
 					 backwardPacketString = backward.receive();
 				}
 				catch(TimedOutException e){
+					events.timeout(1, 1, e.key);
+					rtt.timedOut();
+					events.rto(1, rtt.getRto());
+					events.retransmitted(1, packet);
+					stale.resent();
 					forward.send(packet);
-					System.out.println(" **Sender(1->1): timeout; resending ***");
 					return 1;
 				}
-				
 				backwardPacket = Packet.deserialize(backwardPacketString);
-				System.out.printf(" **Sender(%d): %s **\n", myState, backwardPacket.toString());
-				if(backwardPacket.data.equals("ACK") && !backwardPacket.isCorrupt() && backwardPacket.seqnum.equals("0")){
-					//printSender(myState, 2, backwardPacket.data, backwardPacket.checksum, backwardPacket.seqnum);
+				events.received(Side.SENDER, myState, backwardPacket);
+				if (backwardPacket.isCorrupt()) {
+					stale.corrupt();
+					events.corrupt(Side.SENDER, 1, 1, backwardPacket);
+				} else if (backwardPacket.data.equals("ACK") && backwardPacket.seqnum.equals("0")) {
 					backward.stopTimer();
-					System.out.printf(" **Sender(1->2)\n");
+					if (rtt.acked()) events.rto(1, rtt.getRto());
+					stale.acked();
+					events.acked(1, 2, backwardPacket);
 					return 2;
+				} else {
+					boolean resend = stale.duplicate();
+					events.duplicate(Side.SENDER, 1, 1, backwardPacket, resend);
+					if (!resend) return 1;
 				}
-				System.out.printf(" **Sender(1->1): wrong or corrupt acknowledgement; resending **\n", myState);
-				//printSender(myState, 1, backwardPacket.data, backwardPacket.checksum, backwardPacket.seqnum);
+				rtt.retransmitted();
+				events.retransmitted(1, packet);
+				stale.resent();
 				forward.send(packet);
 				return 1;
 			case 2:
 				dat = getFromApp(0);
-				packet = new Packet(dat, "1");
-				System.out.printf("Sender(%d): %s\n", myState, packet.toString());
-				System.out.printf(" **Sender(2->3)\n");
-				//printSender(myState, 3, packet.data, packet.checksum, packet.seqnum);
+				packet = new Packet(dat, "1", checksum);
+				events.sent(2, 3, packet);
+				rtt.sent();
+				stale.sent();
 				forward.send(packet);
 				return 3;
 			case 3:
-		
-				/// TIMER HERE
-				backward.startTimer(timeout);
+				backward.startTimer(rtt.getRto());
 				try{
 					 backwardPacketString = backward.receive();
 				}
 				catch(TimedOutException e){
+					events.timeout(3, 3, e.key);
+					rtt.timedOut();
+					events.rto(3, rtt.getRto());
+					events.retransmitted(3, packet);
+					stale.resent();
 					forward.send(packet);
-					System.out.println(" **Sender(3->3): timeout; resending ***");
 					return 3;
 				}
 				backwardPacket = Packet.deserialize(backwardPacketString);
-				
-				System.out.printf(" **Sender(%d): %s **\n", myState, backwardPacket.toString());
-				if(backwardPacket.data.equals("ACK") && !backwardPacket.isCorrupt() && backwardPacket.seqnum.equals("1")){
-					//printSender(myState, 0, backwardPacket.data, backwardPacket.checksum, backwardPacket.seqnum);
-					System.out.printf(" **Sender(3->0)\n");
+				events.received(Side.SENDER, myState, backwardPacket);
+				if (backwardPacket.isCorrupt()) {
+					stale.corrupt();
+					events.corrupt(Side.SENDER, 3, 3, backwardPacket);
+				} else if (backwardPacket.data.equals("ACK") && backwardPacket.seqnum.equals("1")) {
 					backward.stopTimer();
+					if (rtt.acked()) events.rto(3, rtt.getRto());
+					stale.acked();
+					events.acked(3, 0, backwardPacket);
 					return 0;
+				} else {
+					boolean resend = stale.duplicate();
+					events.duplicate(Side.SENDER, 3, 3, backwardPacket, resend);
+					if (!resend) return 3;
 				}
-				//printSender(myState, 3, backwardPacket.data, backwardPacket.checksum, backwardPacket.seqnum);
-				System.out.printf(" **Sender(3->3): wrong or corrupt acknowledgement; resending **\n", myState);
+				rtt.retransmitted();
+				events.retransmitted(3, packet);
+				stale.resent();
 				forward.send(packet);
 				return 3;
 			}
@@ -146,64 +194,74 @@ public class RDT30 extends RTDBase {
 		@Override
 		public int loop(int myState) throws IOException {
 			String dat;
-			Packet packet;
+			Packet packet, reply;
 			switch (myState) {
 			case 0: 
 				dat = forward.receive();
 				packet = Packet.deserialize(dat);
-				System.out.printf("\t **Receiver(%d): %s **\n", myState, packet.toString());
+				events.received(Side.RECEIVER, myState, packet);
 				if(!packet.isCorrupt()){
 					if(packet.seqnum.equals("1")){
-						System.out.printf("\t **Receiver(0->0): duplicate 1 packet; discarding; replying ACK/1 **\n");
-						backward.send(new Packet("ACK", "1"));
+						events.duplicate(Side.RECEIVER, 0, 0, packet, false);
+						reply = new Packet("ACK", "1", checksum);
+						events.replied(0, reply);
+						backward.send(reply);
 						return 0;
 					}
-					//printRec(0, 1, packet.data, packet.checksum, packet.seqnum, false, false);
-					System.out.printf("\t **Receiver(0->1): ok 0 data; replying ACK/0 **\n");
+					events.delivered(0, 1, packet);
 					deliverToApp(packet.data);
-					backward.send(new Packet("ACK", "0"));
+					reply = new Packet("ACK", "0", checksum);
+					events.replied(0, reply);
+					backward.send(reply);
 					return 1;
 				}
 
-				//printRec(0, 0, packet.data, packet.checksum, packet.seqnum, true, false);
-				System.out.printf("\t **Receiver(0->0): corrupt data; replying ACK/1 **\n");
-				backward.send(new Packet("ACK", "1"));
+				events.corrupt(Side.RECEIVER, 0, 0, packet);
+				reply = new Packet("ACK", "1", checksum);
+				events.replied(0, reply);
+				backward.send(reply);
 				return 0;
 
 			case 1:
 				dat = forward.receive();
 				packet = Packet.deserialize(dat);
-				System.out.printf("\t **Receiver(%d): %s **\n", myState, packet.toString());
+				events.received(Side.RECEIVER, myState, packet);
 				if(!packet.isCorrupt()){
 					if(packet.seqnum.equals("0")){
-						System.out.printf("\t **Receiver(1->1): duplicate 0 packet; discarding; replying ACK/0 **\n");
-						backward.send(new Packet("ACK", "0"));
+						events.duplicate(Side.RECEIVER, 1, 1, packet, false);
+						reply = new Packet("ACK", "0", checksum);
+						events.replied(1, reply);
+						backward.send(reply);
 						return 1;
 					}
-					//printRec(1, 0, packet.data, packet.checksum, packet.seqnum, false, false);
-					System.out.printf("\t **Receiver(1->0): ok 1 data; replying ACK/1 **\n");
+					events.delivered(1, 0, packet);
 					deliverToApp(packet.data);
-					backward.send(new Packet("ACK", "1"));
+					reply = new Packet("ACK", "1", checksum);
+					events.replied(1, reply);
+					backward.send(reply);
 					return 0;
 				}
 
-				//printRec(1, 1, packet.data, packet.checksum, packet.seqnum, true, false);
-				System.out.printf("\t **Receiver(1->1): corrupt data; replying ACK/0 **\n");
-				backward.send(new Packet("ACK", "0"));
+				events.corrupt(Side.RECEIVER, 1, 1, packet);
+				reply = new Packet("ACK", "0", checksum);
+				events.replied(1, reply);
+				backward.send(reply);
 				return 1;
 			}
-			return myState;	
+			return myState;
 		}
 	}
 
 	/**
 	 * Runs rdt2.2 simulation
-	 * @param args	[-m pmunge][-l ploss][-t timeout][-f filename]
+	 * @param args	[-m pmunge][-l ploss][-t timeout][-f filename][-c checksum][-r][-i][-v][-b rate][-g delay][-j jitter][-q queue][-a mtu[,linger]][-z seed][-y]
 	 * @throws IOException	if i/o error occurs
 	 */
 	public static void main(String[] args) throws IOException {
 		Object[] pargs = argParser("RDT10", args);
 		RDT30 rdt30 = new RDT30((Double)pargs[0], (Double)pargs[1], (Integer)pargs[2], (String)pargs[3]);
+		rdt30.setEventListener(new TraceListener());
+		rdt30.configure(pargs);
 		rdt30.run();
 	}
 	
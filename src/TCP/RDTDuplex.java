@@ -0,0 +1,363 @@
+package TCP;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import TCP.RdtEventListener.Side;
+import TCP.TUChannel.TimedOutException;
+
+/**
+ * Implements a full-duplex simulator: two endpoints both send application data,
+ * endpoint A on forward and endpoint B on backward, each using Go-Back-N.
+ * Each endpoint runs one FSM that is both sender and receiver, and acknowledges the
+ * data it receives in the header of its own next data packet (piggybacking).
+ * A standalone ACK is sent only when the endpoint has no data it may send; with
+ * setDelayedAcks it is held back until that many packets are owed or the delay
+ * expires, giving the application time to supply data to carry it.
+ * A's data is read from the app input and delivered by B to the application sink;
+ * B's data is read from the reverse input and delivered by A to the reverse sink.
+ * Each endpoint's input is read a line ahead by a Feed, which wakes the endpoint when
+ * the line is ready, so an idle endpoint blocks until a packet, a timeout or data arrives.
+ * Events of A and B go to the listener's named("A") and named("B"), and their state
+ * residency to machines "A" and "B" of the metrics.
+ * Each direction has a congestion controller of its own: setCongestionController
+ * limits A's data and setReverseCongestionController B's.
+ *
+ * @author rms
+ *
+ */
+public class RDTDuplex extends RTDBase {
+	/**
+	 * Timer key that wakes an endpoint owing a delayed ACK to send it
+	 */
+	private static final int ACK_TIMER = TUChannel.TIMER - 1;
+	int timeout;
+	int window;
+	/**
+	 * Endpoint sending on backward
+	 */
+	protected Endpoint peer;
+	/**
+	 * StringPitcher feeding peer, if automatic data feed is elected
+	 */
+	protected StringPitcher peerSp = null;
+	/**
+	 * Destination of data delivered by sender, which comes from peer
+	 */
+	protected ApplicationSink reverseApp = dat -> System.out.println("<--        "+dat);
+	/**
+	 * Congestion controller of peer's data; congestion controls sender's
+	 */
+	protected CongestionController reverseCongestion = null;
+
+	/**
+	 * Constructs an RDTDuplex simulator with given munge factor, loss factor, window and file feed
+	 * @param pmunge		probability of character errors
+	 * @param plost			probability of packet loss
+	 * @param timeout		receive timeout in milliseconds
+	 * @param window		maximum number of unacknowledged packets in flight in each direction
+	 * @param filename		file used for automatic data feed in both directions
+	 * @throws IOException	if channel transmissions fail
+	 */
+	public RDTDuplex(double pmunge, double plost, int timeout, int window, String filename) throws IOException {
+		super(pmunge, plost, filename);
+		if (window < 1) throw new IllegalArgumentException("window must be positive");
+		this.timeout = timeout;
+		this.window = window;
+		forward = new TUChannel(pmunge, plost);
+		backward = new TUChannel(pmunge, plost);
+		sender = new Endpoint(true);
+		peer = new Endpoint(false);
+		if (filename != null) {
+			peerSp = new StringPitcher(new File(System.getenv("user.dir"), filename), 500, 0);
+			peer.appIn = peerSp.getReader();
+		} else {
+			peer.appIn = new BufferedReader(new StringReader(""));
+		}
+	}
+
+	/**
+	 * Endpoint implementing Go-Back-N in both directions.
+	 * State 0 sends a data packet if the window and the application allow, and
+	 * otherwise a standalone ACK if one is due; state 1 waits for a packet, a timeout,
+	 * a wake-up from its Feed, or the expiry of a delayed ACK, each of which brings it
+	 * back to state 0.
+	 * Every data packet carries PIGGYBACK with the last packet delivered in order.
+	 * Corrupt packets are dropped unanswered; the peer's timer recovers them.
+	 * The sending half is RDTGBN's GoBackNWindow, so a timeout goes back to base and
+	 * state 0 resends the window before new data.
+	 * Only a standalone ACK that acknowledges nothing new is a duplicate ACK for the
+	 * congestion controller; a data packet repeating its last PIGGYBACK is not, as in TCP.
+	 * @author rms
+	 *
+	 */
+	public class Endpoint extends RSender {
+		final boolean initiator;
+		final GoBackNWindow sent;
+		BinaryPacket packet = new BinaryPacket(), ack = new BinaryPacket();
+		ByteBuffer frame = ByteBuffer.allocate(UChannel.MAX_FRAME);
+		int expected = 0;
+		/**
+		 * Data packets received since the last ACK sent, and when the first of them arrived
+		 */
+		int owed = 0;
+		long owedSince;
+		boolean ended = false;
+		TUChannel in;
+		/**
+		 * Listener for this endpoint's events, named A or B
+		 */
+		RdtEventListener events = RdtEventListener.NONE;
+		Endpoint(boolean initiator) {
+			this.initiator = initiator;
+			this.in = (TUChannel)(initiator ? backward : forward);
+			this.sent = new GoBackNWindow(window, initiator ? () -> congestion : () -> reverseCongestion);
+		}
+		@Override
+		public int loop(int myState) throws IOException {
+			switch (myState) {
+			case 0:
+				if (sent.canResend()) {
+					boolean first = sent.isEmpty();
+					BinaryPacket p = sent.resend();
+					events.retransmitted(0, p);
+					send(p);
+					if (first) in.startTimer(timeout);
+					return 0;
+				}
+				if (sent.canSend() && !ended && appReady()) {
+					String dat = getFromApp(0);
+					if (dat == null) {
+						ended = true;
+						return 0;
+					}
+					boolean first = sent.isEmpty();
+					BinaryPacket p = sent.send(dat);
+					send(p);
+					events.sent(0, 0, p);
+					if (first) in.startTimer(timeout);
+					return 0;
+				}
+				if (owed > 0 && (owed >= ackEvery || System.nanoTime() - owedSince >= ackDelay * 1000000L)) sendAck();
+				else if (owed > 0) in.startTimer(ACK_TIMER, Math.max(1, ackDelay - (int)((System.nanoTime() - owedSince) / 1000000L)));
+				return 1;
+			case 1:
+				try {
+					if (in.receiveOrWake(frame) == 0) return 0;
+				} catch (TimedOutException e) {
+					if (e.key == ACK_TIMER) return 0;
+					events.timeout(1, 0, e.key);
+					sent.timeout();
+					return 0;
+				}
+				packet.decode(frame);
+				if (packet.isCorrupt()) {
+					events.corrupt(Side.RECEIVER, 1, 0, packet);
+					return 0;
+				}
+				if (packet.is(BinaryPacket.ACK)) {
+					events.received(Side.SENDER, 1, packet);
+					GoBackNWindow.Ack a = sent.ack(packet.seqnum);
+					if (a == GoBackNWindow.Ack.NEW) acknowledged();
+					else events.duplicate(Side.SENDER, 1, 0, packet, a == GoBackNWindow.Ack.FAST_RETRANSMIT);
+					if (a == GoBackNWindow.Ack.FAST_RETRANSMIT) in.stopTimer();
+					return 0;
+				}
+				events.received(Side.RECEIVER, 1, packet);
+				if (packet.is(BinaryPacket.PIGGYBACK) && sent.acknowledges(packet.acknum)) {
+					sent.ack(packet.acknum);
+					acknowledged();
+				}
+				if (owed++ == 0) owedSince = System.nanoTime();
+				if (packet.seqnum == expected) {
+					events.delivered(1, 0, packet);
+					deliver(initiator ? reverseApp : app, packet.getData());
+					(initiator ? peer : sender).delivered(packet.getData());
+					expected++;
+				} else {
+					if (packet.seqnum - expected < 0) events.duplicate(Side.RECEIVER, 1, 0, packet, false);
+					owed = Math.max(owed, ackEvery);
+				}
+				return 0;
+			}
+			return myState;
+		}
+		/**
+		 * Restarts or stops the timer once packet has acknowledged data in flight
+		 */
+		private void acknowledged() {
+			if (sent.isEmpty()) in.stopTimer();
+			else in.startTimer(timeout);
+			events.acked(1, 0, packet);
+		}
+		private void send(BinaryPacket p) {
+			frame.clear();
+			p.piggyback(expected - 1).use(checksum).encode(frame);
+			frame.flip();
+			paid();
+			(initiator ? forward : backward).send(frame);
+		}
+		private void sendAck() {
+			frame.clear();
+			ack.set(expected - 1, BinaryPacket.ACK).use(checksum).encode(frame);
+			frame.flip();
+			paid();
+			events.replied(0, ack);
+			(initiator ? forward : backward).send(frame);
+		}
+		/**
+		 * Clears the ACKs owed, once a packet has carried them
+		 */
+		private void paid() {
+			if (owed > 0) in.stopTimer(ACK_TIMER);
+			owed = 0;
+		}
+		/**
+		 * Puts a Feed between this endpoint and its input
+		 * @return	the Feed, to be run on a thread of its own
+		 */
+		Feed feed() {
+			Feed f = new Feed(appIn, in);
+			appIn = f;
+			return f;
+		}
+	}
+
+	/**
+	 * Input of an endpoint that wakes it when a line is ready: its thread reads one line
+	 * at a time from the source into a single slot and posts a wake-up into the channel
+	 * the endpoint receives from. The endpoint sees a line as ready once it is in the slot.
+	 * @author rms
+	 *
+	 */
+	static class Feed extends BufferedReader implements Runnable {
+		/**
+		 * Slot content at the end of the source
+		 */
+		private static final String END = new String();
+		private final BufferedReader source;
+		private final TUChannel channel;
+		private final BlockingQueue<String> slot = new ArrayBlockingQueue<>(1);
+
+		Feed(BufferedReader source, TUChannel channel) {
+			super(Reader.nullReader());
+			this.source = source;
+			this.channel = channel;
+		}
+		@Override
+		public String readLine() throws IOException {
+			String line;
+			try {
+				line = slot.take();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			if (line != END) return line;
+			slot.offer(END);
+			return null;
+		}
+		@Override
+		public boolean ready() {
+			return !slot.isEmpty();
+		}
+		@Override
+		public void run() {
+			try {
+				for (;;) {
+					String line = source.readLine();
+					slot.put(line == null ? END : line);
+					channel.wake();
+					if (line == null) return;
+				}
+			} catch (InterruptedException | InterruptedIOException e) {
+				return;
+			} catch (IOException e) {
+				if (!Thread.currentThread().isInterrupted()) e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Replaces peer's data input, e.g. with a generated workload
+	 * @param in	source of lines for peer
+	 */
+	public void setReverseInput(BufferedReader in) {
+		peer.appIn = in;
+	}
+
+	/**
+	 * Sends data delivered by sender, which comes from peer, to sink instead of printing it
+	 * @param sink	destination of delivered data
+	 */
+	public void setReverseSink(ApplicationSink sink) {
+		this.reverseApp = sink;
+	}
+
+	/**
+	 * Lets controller limit the packets peer keeps in flight, as setCongestionController
+	 * does for sender. Must be called before run.
+	 * @param controller	new controller of peer's data only, or null for a fixed window
+	 */
+	public void setReverseCongestionController(CongestionController controller) {
+		this.reverseCongestion = controller;
+	}
+	/**
+	 * Also gives peer a congestion controller of its own for -k
+	 */
+	@Override
+	public void configureEndpoints(Object[] pargs) {
+		super.configureEndpoints(pargs);
+		if (pargs[13] != null) setReverseCongestionController(CongestionController.create((String)pargs[13]));
+	}
+
+	/**
+	 * Records the states of sender and peer as machines "A" and "B", the names of their events
+	 */
+	@Override
+	protected void setStates(Metrics metrics) {
+		sender.setStates(metrics == null ? null : metrics.machine("A"));
+		peer.setStates(metrics == null ? null : metrics.machine("B"));
+	}
+
+	/**
+	 * Also gives each endpoint the listener's view named after it, A or B
+	 */
+	@Override
+	public void setEventListener(RdtEventListener listener) {
+		super.setEventListener(listener);
+		((Endpoint)sender).events = events.named("A");
+		peer.events = events.named("B");
+	}
+
+	/**
+	 * Starts threads in forward, backward, both endpoints, their feeds and both pitchers.
+	 */
+	@Override
+	public synchronized void run() {
+		Feed a = ((Endpoint)sender).feed(), b = peer.feed();
+		super.run();
+		start(peer);
+		start(a);
+		start(b);
+		start(peerSp);
+	}
+
+	/**
+	 * Runs full-duplex simulation
+	 * @param args	[-m pmunge][-l ploss][-t timeout][-f filename][-w window][-c checksum][-r][-i][-v][-b rate][-g delay][-j jitter][-q queue][-k reno][-a mtu[,linger]][-e acks[,delay]][-z seed][-y]
+	 * @throws IOException	if i/o error occurs
+	 */
+	public static void main(String[] args) throws IOException {
+		Object[] pargs = argParser("RDTDuplex", args);
+		RDTDuplex rdtduplex = new RDTDuplex((Double)pargs[0], (Double)pargs[1], (Integer)pargs[2], (Integer)pargs[4], (String)pargs[3]);
+		rdtduplex.setEventListener(new TraceListener());
+		rdtduplex.configure(pargs);
+		rdtduplex.run();
+	}
+}
@@ -0,0 +1,175 @@
+package TCP;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import TCP.RdtEventListener.Side;
+import TCP.TUChannel.TimedOutException;
+
+/**
+ * Implements simulator using the Go-Back-N pipelined protocol.
+ * Up to window packets may be in flight; the receiver replies with cumulative
+ * ACKs and a single timer covers the oldest unacknowledged packet.
+ * Packets use the binary BinaryPacket format with 32-bit sequence numbers.
+ *
+ * @author rms
+ *
+ */
+public class RDTGBN extends RTDBase {
+	int timeout;
+	int window;
+
+	/**
+	 * Constructs an RDTGBN simulator with given munge factor, loss factor, window and file feed
+	 * @param pmunge		probability of character errors
+	 * @param plost			probability of packet loss
+	 * @param timeout		receive timeout in milliseconds
+	 * @param window		maximum number of unacknowledged packets in flight
+	 * @param filename		file used for automatic data feed
+	 * @throws IOException	if channel transmissions fail
+	 */
+	public RDTGBN(double pmunge, double plost, int timeout, int window, String filename) throws IOException {
+		super(pmunge, plost, filename);
+		if (window < 1) throw new IllegalArgumentException("window must be positive");
+		this.timeout = timeout;
+		this.window = window;
+		backward = new TUChannel(pmunge, plost);
+		sender = new RSenderGBN();
+		receiver = new RReceiverGBN();
+	}
+
+	/**
+	 * RSender Class implementing Go-Back-N protocol.
+	 * State 0 fills the window from the application; state 1 waits for an ACK or timeout.
+	 * The window, GoBackNWindow, decides what an ACK or timeout does, as it does for
+	 * RDTDuplex and EventRdt.GoBackN; a timeout or the third duplicate ACK with a
+	 * CongestionController goes back to base, and state 0 resends from there before
+	 * taking new data.
+	 * Packets in flight and frames are reused, so steady-state sending does not allocate.
+	 * @author rms
+	 *
+	 */
+	public class RSenderGBN extends RSender {
+		GoBackNWindow sent = new GoBackNWindow(window, () -> congestion);
+		BinaryPacket backwardPacket = new BinaryPacket();
+		ByteBuffer frame = ByteBuffer.allocate(UChannel.MAX_FRAME);
+		TUChannel backward = (TUChannel)RDTGBN.this.backward;
+		@Override
+		public int loop(int myState) throws IOException {
+			switch(myState) {
+			case 0:
+				if (sent.canResend()) {
+					boolean first = sent.isEmpty();
+					BinaryPacket packet = sent.resend();
+					events.retransmitted(0, packet);
+					send(packet);
+					if (first) backward.startTimer(timeout);
+					return 0;
+				}
+				if (sent.canSend() && (sent.isEmpty() || appReady())) {
+					boolean first = sent.isEmpty();
+					BinaryPacket packet = sent.send(getFromApp(0));
+					send(packet);
+					events.sent(0, 0, packet);
+					if (first) backward.startTimer(timeout);
+					return 0;
+				}
+				return 1;
+			case 1:
+				try {
+					backward.receive(frame);
+				} catch (TimedOutException e) {
+					events.timeout(1, 0, e.key);
+					sent.timeout();
+					return 0;
+				}
+				backwardPacket.decode(frame);
+				events.received(Side.SENDER, myState, backwardPacket);
+				if (backwardPacket.isCorrupt()) {
+					events.corrupt(Side.SENDER, 1, 0, backwardPacket);
+					return 0;
+				}
+				if (!backwardPacket.is(BinaryPacket.ACK)) return 0;
+				GoBackNWindow.Ack ack = sent.ack(backwardPacket.seqnum);
+				if (ack != GoBackNWindow.Ack.NEW) {
+					events.duplicate(Side.SENDER, 1, 0, backwardPacket, ack == GoBackNWindow.Ack.FAST_RETRANSMIT);
+					if (ack == GoBackNWindow.Ack.FAST_RETRANSMIT) backward.stopTimer();
+					return 0;
+				}
+				if (sent.isEmpty()) backward.stopTimer();
+				else backward.startTimer(timeout);
+				events.acked(1, 0, backwardPacket);
+				return 0;
+			}
+			return myState;
+		}
+		private void send(BinaryPacket packet) {
+			frame.clear();
+			packet.use(checksum).encode(frame);
+			frame.flip();
+			forward.send(frame);
+		}
+	}
+
+	/**
+	 * RReceiver Class implementing Go-Back-N protocol.
+	 * Accepts only the next expected packet and ACKs the last one delivered in order.
+	 * With delayed ACKs, packets accepted in order are acknowledged by the DelayedAck,
+	 * which may send its ACK from the timer thread, so ACKs have a frame of their own.
+	 * Any other packet releases the delayed ACK at once, or repeats the last ACK if none
+	 * is waiting, so the sender still sees duplicate ACKs as soon as a packet is missing.
+	 * @author rms
+	 *
+	 */
+	public class RReceiverGBN extends RReceiver {
+		volatile int expected = 0;
+		BinaryPacket packet = new BinaryPacket(), ack = new BinaryPacket();
+		ByteBuffer frame = ByteBuffer.allocate(UChannel.MAX_FRAME), ackFrame = ByteBuffer.allocate(UChannel.MAX_FRAME);
+		DelayedAck delayed;
+		@Override
+		public int loop(int myState) throws IOException {
+			switch (myState) {
+			case 0:
+				if (delayed == null && ackEvery > 1) delayed = delayedAck(() -> sendAck(expected - 1));
+				forward.receive(frame);
+				packet.decode(frame);
+				events.received(Side.RECEIVER, myState, packet);
+				if (!packet.isCorrupt() && !packet.is(BinaryPacket.ACK) && packet.seqnum == expected) {
+					events.delivered(0, 0, packet);
+					deliverToApp(packet.getData());
+					expected++;
+					if (delayed != null) delayed.delivered();
+					else sendAck(expected - 1);
+					return 0;
+				}
+				if (packet.isCorrupt()) {
+					events.corrupt(Side.RECEIVER, 0, 0, packet);
+				} else if (packet.seqnum - expected < 0) {
+					events.duplicate(Side.RECEIVER, 0, 0, packet, false);
+				}
+				if (delayed == null || !delayed.flush()) sendAck(expected - 1);
+				return 0;
+			}
+			return myState;
+		}
+		private synchronized void sendAck(int seqnum) {
+			ackFrame.clear();
+			ack.set(seqnum, BinaryPacket.ACK).use(checksum).encode(ackFrame);
+			ackFrame.flip();
+			events.replied(0, ack);
+			backward.send(ackFrame);
+		}
+	}
+
+	/**
+	 * Runs Go-Back-N simulation
+	 * @param args	[-m pmunge][-l ploss][-t timeout][-f filename][-w window][-c checksum][-r][-i][-v][-b rate][-g delay][-j jitter][-q queue][-k reno][-a mtu[,linger]][-e acks[,delay]][-z seed][-y]
+	 * @throws IOException	if i/o error occurs
+	 */
+	public static void main(String[] args) throws IOException {
+		Object[] pargs = argParser("RDTGBN", args);
+		RDTGBN rdtgbn = new RDTGBN((Double)pargs[0], (Double)pargs[1], (Integer)pargs[2], (Integer)pargs[4], (String)pargs[3]);
+		rdtgbn.setEventListener(new TraceListener());
+		rdtgbn.configure(pargs);
+		rdtgbn.run();
+	}
+}
@@ -0,0 +1,237 @@
+package TCP;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import TCP.RdtEventListener.Side;
+import TCP.TUChannel.TimedOutException;
+
+/**
+ * Implements simulator using the Selective Repeat pipelined protocol.
+ * Every packet in flight has its own retransmission timer and is ACKed individually;
+ * the receiver holds out-of-order packets in a reorder buffer of window slots so that
+ * data still reaches the application in order.
+ *
+ * @author rms
+ *
+ */
+public class RDTSR extends RTDBase {
+	int timeout;
+	int window;
+
+	/**
+	 * Constructs an RDTSR simulator with given munge factor, loss factor, window and file feed
+	 * @param pmunge		probability of character errors
+	 * @param plost			probability of packet loss
+	 * @param timeout		per-packet retransmission timeout in milliseconds
+	 * @param window		sender window and receiver reorder buffer size
+	 * @param filename		file used for automatic data feed
+	 * @throws IOException	if channel transmissions fail
+	 */
+	public RDTSR(double pmunge, double plost, int timeout, int window, String filename) throws IOException {
+		super(pmunge, plost, filename);
+		if (window < 1) throw new IllegalArgumentException("window must be positive");
+		this.timeout = timeout;
+		this.window = window;
+		backward = new TUChannel(pmunge, plost);
+		sender = new RSenderSR();
+		receiver = new RReceiverSR();
+	}
+
+	/**
+	 * RSender Class implementing Selective Repeat protocol.
+	 * State 0 fills the window from the application; state 1 waits for an ACK or timeout.
+	 * Each packet in flight has a TUChannel timer keyed by its seqnum, so only the
+	 * packet whose timer expires is resent.
+	 * With a CongestionController, at most its window of packets is in flight. An ACK
+	 * for a later packet while base is still unacknowledged counts as a duplicate ACK,
+	 * so the third one resends base at once (fast retransmit). The timers of a burst of
+ * lost packets expire one by one, but only the first expiry is a timeout for the
+ * controller: later ones, until base passes the packets sent before it, belong to
+ * the same loss.
+	 * A CUMULATIVE ACK, sent by a receiver delaying its ACKs, acknowledges every packet
+	 * from base up to its seqnum.
+	 * @author rms
+	 *
+	 */
+	public class RSenderSR extends RSender {
+		BinaryPacket[] sent = new BinaryPacket[window];
+		boolean[] acked = new boolean[window];
+		BinaryPacket backwardPacket = new BinaryPacket();
+		ByteBuffer frame = ByteBuffer.allocate(UChannel.MAX_FRAME);
+		int base = 0, nextSeq = 0;
+		/**
+		 * nextSeq at the last timeout the controller was told of
+		 */
+		int recover = 0;
+		TUChannel backward = (TUChannel)RDTSR.this.backward;
+		RSenderSR() {
+			for (int i = 0; i < window; i++) sent[i] = new BinaryPacket();
+		}
+		@Override
+		public int loop(int myState) throws IOException {
+			switch(myState) {
+			case 0:
+				if (nextSeq - base < limit() && (base == nextSeq || appReady())) {
+					String dat = getFromApp(0);
+					int slot = Math.floorMod(nextSeq, window);
+					BinaryPacket packet = sent[slot].set(nextSeq, 0, dat);
+					acked[slot] = false;
+					send(packet);
+					events.sent(0, 0, packet);
+					backward.startTimer(nextSeq, timeout);
+					nextSeq++;
+					return 0;
+				}
+				return 1;
+			case 1:
+				try {
+					backward.receive(frame);
+				} catch (TimedOutException e) {
+					events.timeout(1, 0, e.key);
+					if (congestion != null && base - recover >= 0) {
+						congestion.timeout(nextSeq - base);
+						recover = nextSeq;
+					}
+					events.retransmitted(1, sent[Math.floorMod(e.key, window)]);
+					send(sent[Math.floorMod(e.key, window)]);
+					backward.startTimer(e.key, timeout);
+					return 0;
+				}
+				backwardPacket.decode(frame);
+				events.received(Side.SENDER, myState, backwardPacket);
+				if (backwardPacket.isCorrupt()) {
+					events.corrupt(Side.SENDER, 1, 0, backwardPacket);
+					return 0;
+				}
+				if (!backwardPacket.is(BinaryPacket.ACK)) return 0;
+				int seq = backwardPacket.seqnum;
+				boolean cumulative = backwardPacket.is(BinaryPacket.CUMULATIVE);
+				if (seq - base >= 0 && seq - nextSeq < 0 && (cumulative || !acked[Math.floorMod(seq, window)])) {
+					for (int s = cumulative ? base : seq; s - seq <= 0; s++) {
+						if (acked[Math.floorMod(s, window)]) continue;
+						acked[Math.floorMod(s, window)] = true;
+						backward.stopTimer(s);
+					}
+					int oldBase = base, inFlight = nextSeq - base;
+					while (base != nextSeq && acked[Math.floorMod(base, window)]) base++;
+					events.acked(1, 0, backwardPacket);
+					if (congestion != null) {
+						if (base != oldBase) {
+							congestion.acked(base - oldBase, inFlight);
+						} else if (congestion.duplicateAck(inFlight)) {
+							events.retransmitted(1, sent[Math.floorMod(base, window)]);
+							send(sent[Math.floorMod(base, window)]);
+							backward.startTimer(base, timeout);
+						}
+					}
+				} else {
+					events.duplicate(Side.SENDER, 1, 0, backwardPacket, false);
+				}
+				return 0;
+			}
+			return myState;
+		}
+		/**
+		 * @return	largest number of packets allowed in flight
+		 */
+		private int limit() {
+			return congestion == null ? window : Math.min(window, congestion.window());
+		}
+		private void send(BinaryPacket packet) {
+			frame.clear();
+			packet.use(checksum).encode(frame);
+			frame.flip();
+			forward.send(frame);
+		}
+	}
+
+	/**
+	 * RReceiver Class implementing Selective Repeat protocol.
+	 * Buffers any packet within window of rcvBase, ACKs each packet individually and
+	 * re-ACKs packets from the previous window whose ACK may have been lost.
+	 * With delayed ACKs, a packet arriving in order with nothing buffered behind it is
+	 * acknowledged by the DelayedAck, whose CUMULATIVE ACK covers every packet before
+	 * rcvBase and may be sent from the timer thread, so ACKs have a frame of their own.
+	 * Any other packet releases the delayed ACK and is ACKed individually at once.
+	 * @author rms
+	 *
+	 */
+	public class RReceiverSR extends RReceiver {
+		BinaryPacket[] buffered = new BinaryPacket[window];
+		boolean[] present = new boolean[window];
+		BinaryPacket packet = new BinaryPacket(), ack = new BinaryPacket();
+		ByteBuffer frame = ByteBuffer.allocate(UChannel.MAX_FRAME), ackFrame = ByteBuffer.allocate(UChannel.MAX_FRAME);
+		volatile int rcvBase = 0;
+		int held = 0;
+		DelayedAck delayed;
+		RReceiverSR() {
+			for (int i = 0; i < window; i++) buffered[i] = new BinaryPacket();
+		}
+		@Override
+		public int loop(int myState) throws IOException {
+			switch (myState) {
+			case 0:
+				if (delayed == null && ackEvery > 1) delayed = delayedAck(() -> sendAck(rcvBase - 1, BinaryPacket.ACK | BinaryPacket.CUMULATIVE));
+				forward.receive(frame);
+				packet.decode(frame);
+				events.received(Side.RECEIVER, myState, packet);
+				if (packet.isCorrupt()) {
+					events.corrupt(Side.RECEIVER, 0, 0, packet);
+					return 0;
+				}
+				if (packet.is(BinaryPacket.ACK)) return 0;
+				int offset = packet.seqnum - rcvBase;
+				if (offset >= 0 && offset < window) {
+					int slot = Math.floorMod(packet.seqnum, window);
+					boolean inOrder = offset == 0 && held == 0;
+					if (!present[slot]) {
+						buffered[slot].copyFrom(packet);
+						present[slot] = true;
+						held++;
+					} else {
+						events.duplicate(Side.RECEIVER, 0, 0, packet, false);
+					}
+					if (delayed == null || !inOrder) {
+						if (delayed != null) delayed.flush();
+						sendAck(packet.seqnum, BinaryPacket.ACK);
+					}
+					while (present[Math.floorMod(rcvBase, window)]) {
+						int slot0 = Math.floorMod(rcvBase, window);
+						events.delivered(0, 0, buffered[slot0]);
+						deliverToApp(buffered[slot0].getData());
+						present[slot0] = false;
+						held--;
+						rcvBase++;
+					}
+					if (delayed != null && inOrder) delayed.delivered();
+				} else if (offset < 0 && offset >= -window) {
+					events.duplicate(Side.RECEIVER, 0, 0, packet, false);
+					if (delayed != null) delayed.flush();
+					sendAck(packet.seqnum, BinaryPacket.ACK);
+				}
+				return 0;
+			}
+			return myState;
+		}
+		private synchronized void sendAck(int seqnum, int flags) {
+			ackFrame.clear();
+			ack.set(seqnum, flags).use(checksum).encode(ackFrame);
+			ackFrame.flip();
+			events.replied(0, ack);
+			backward.send(ackFrame);
+		}
+	}
+
+	/**
+	 * Runs Selective Repeat simulation
+	 * @param args	[-m pmunge][-l ploss][-t timeout][-f filename][-w window][-c checksum][-r][-i][-v][-b rate][-g delay][-j jitter][-q queue][-k reno][-a mtu[,linger]][-e acks[,delay]][-z seed][-y]
+	 * @throws IOException	if i/o error occurs
+	 */
+	public static void main(String[] args) throws IOException {
+		Object[] pargs = argParser("RDTSR", args);
+		RDTSR rdtsr = new RDTSR((Double)pargs[0], (Double)pargs[1], (Integer)pargs[2], (Integer)pargs[4], (String)pargs[3]);
+		rdtsr.setEventListener(new TraceListener());
+		rdtsr.configure(pargs);
+		rdtsr.run();
+	}
+}
@@ -3,6 +3,11 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
 
 import TCP.*;
 
@@ -14,6 +19,18 @@ import TCP.*;
  */
 
 public abstract class RTDBase implements Runnable {
+	/**
+	 * Largest batching mtu; leaves room in a frame for any packet header
+	 */
+	public static final int MAX_MTU = BinaryPacket.MAX_DATA - 64;
+	/**
+	 * Nanoseconds between checks for more lines while batching
+	 */
+	private static final long LINGER_POLL = 100000;
+	/**
+	 * Lines read and not yet delivered whose read time is kept for latency
+	 */
+	private static final int READS = 4096;
 	/**
 	 * Communication channels used by the simulation
 	 */
@@ -30,6 +47,66 @@ public abstract class RTDBase implements Runnable {
 	 * StringPitcher, if automatic data feed is elected.
 	 */
 	protected StringPitcher sp = null;		
+	/**
+	 * Checksum algorithm for packets created by sender and receiver
+	 */
+	protected Checksum checksum = Checksum.INTERNET;
+	/**
+	 * Destination of data delivered by receiver
+	 */
+	protected ApplicationSink app = ApplicationSink.CONSOLE;
+	/**
+	 * Listener for sender and receiver events; ignores them by default
+	 */
+	protected RdtEventListener events = RdtEventListener.NONE;
+	/**
+	 * Listener set by setEventListener, which events combines with metrics
+	 */
+	private RdtEventListener listener = RdtEventListener.NONE;
+	/**
+	 * Counters, latencies and state residency of the simulation; null when not measured
+	 */
+	protected Metrics metrics = null;
+	/**
+	 * Congestion control for windowed senders; null for a fixed window
+	 */
+	protected CongestionController congestion = null;
+	/**
+	 * Largest number of bytes of app lines the sender packs into one packet; 0 for one line per packet
+	 */
+	protected int batchMtu = 0;
+	/**
+	 * Milliseconds the sender waits for more lines to fill a packet
+	 */
+	protected int batchLinger = 0;
+	/**
+	 * Number of packets received in order that a windowed receiver covers with one ACK; 1 to ACK each packet
+	 */
+	protected int ackEvery = 1;
+	/**
+	 * Longest time in milliseconds a windowed receiver delays an ACK
+	 */
+	protected int ackDelay = 0;
+	/**
+	 * Source of the threads started by run
+	 */
+	protected ThreadFactory threadFactory = Threads.PLATFORM;
+	/**
+	 * Scheduler for TUChannel timers when threadFactory is not PLATFORM; null otherwise
+	 */
+	private TimerService timers = null;
+	/**
+	 * LinkModels created by setLinkModel
+	 */
+	private final List<LinkModel> links = new ArrayList<>();
+	/**
+	 * DelayedAcks created by delayedAck
+	 */
+	private final List<DelayedAck> delayedAcks = new ArrayList<>();
+	/**
+	 * Threads started by run
+	 */
+	private final List<Thread> threads = new ArrayList<>();
 
 	/**
 	 * Constructs the RTDBase class with forward and backward channels
@@ -54,6 +131,23 @@ public abstract class RTDBase implements Runnable {
 		 * Reader instance for data input
 		 */
 		protected BufferedReader appIn;
+		/**
+		 * Line read while batching that did not fit in the last packet
+		 */
+		private String pending = null;
+		/**
+		 * System.nanoTime when each of the last READS lines returned by getFromApp was
+		 * read, indexed by line number modulo READS, while latency is recorded
+		 */
+		private final long[] readAt = new long[READS];
+		/**
+		 * Lines returned by getFromApp; written by the sender's thread only
+		 */
+		private volatile long read;
+		/**
+		 * Lines delivered; written by the thread delivering them only
+		 */
+		private long delivered;
 		/*
 		 * Creates an RSender instance with input from file or Standard Input 
 		 */
@@ -61,13 +155,21 @@ public abstract class RTDBase implements Runnable {
 			appIn = (sp != null) ? sp.getReader() : new BufferedReader(new InputStreamReader(System.in));
 		}
 		/**
-		 * Reads and returns a line from appIn  
+		 * Reads and returns a line from appIn; when batching, also the lines that follow
+		 * it within batchMtu bytes, each preceded by '\n'
 		 * @param delay			Time to sleep between reading and returning data
-		 * @return				Line read
+		 * @return				Line or lines read
 		 * @throws IOException	if read fails
 		 */
 		protected String getFromApp(int delay) throws IOException {
-			String dat = appIn.readLine();
+			String dat = pending != null ? pending : appIn.readLine();
+			pending = null;
+			if (batchMtu > 0 && dat != null) dat = batch(dat);
+			if (metrics != null && dat != null && deliversInOrder()) {
+				long now = System.nanoTime(), r = read;
+				for (int i = lines(dat); i > 0; i--, r++) readAt[(int)(r % READS)] = now;
+				read = r;
+			}
 			if (sp != null) {
 				System.out.println(dat);
 				if (delay > 0) {
@@ -81,6 +183,59 @@ public abstract class RTDBase implements Runnable {
 			return dat;
 		}
 
+		/**
+		 * @return	true if getFromApp can return without blocking
+		 * @throws IOException	if appIn fails
+		 */
+		protected boolean appReady() throws IOException {
+			return pending != null || appIn.ready();
+		}
+		/**
+		 * Appends to first the lines ready within batchLinger milliseconds, while they fit
+		 * in batchMtu bytes; a line that does not fit is kept for the next packet
+		 */
+		private String batch(String first) throws IOException {
+			int size = utf8Length(first);
+			StringBuilder sb = null;
+			long deadline = System.nanoTime() + batchLinger * 1000000L;
+			while (size < batchMtu) {
+				if (!appIn.ready()) {
+					if (System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted()) break;
+					LockSupport.parkNanos(LINGER_POLL);
+					continue;
+				}
+				String next = appIn.readLine();
+				if (next == null) break;
+				int len = 1 + utf8Length(next);
+				if (size + len > batchMtu) {
+					pending = next;
+					break;
+				}
+				if (sb == null) sb = new StringBuilder(first);
+				sb.append('\n').append(next);
+				size += len;
+			}
+			return sb == null ? first : sb.toString();
+		}
+
+		/**
+		 * Records the latency of each line of dat, read by getFromApp and now delivered
+		 * to the application. Lines are delivered in the order read, so the n-th line
+		 * delivered is the n-th read; a line whose read time has been overwritten by
+		 * READS later lines is not recorded.
+		 * @param dat	data from a packet
+		 */
+		protected void delivered(String dat) {
+			if (metrics == null || dat == null || !deliversInOrder()) return;
+			long now = System.nanoTime();
+			for (int i = lines(dat); i > 0; i--) {
+				long d = delivered++;
+				if (d >= read) continue;
+				long at = readAt[(int)(d % READS)];
+				if (read - d < READS) metrics.latency(now - at);
+			}
+		}
+
 		@Override
 		public abstract int loop(int myState) throws IOException;
 /*
@@ -100,8 +255,13 @@ public abstract class RTDBase implements Runnable {
 	 *
 	 */
 	protected abstract class RReceiver extends FSM {
+		/**
+		 * Passes data to the application, one line at a time if the sender batched several
+		 * @param dat	data from a packet
+		 */
 		protected void deliverToApp(String dat) {
-			System.out.println("-->        "+dat);
+			deliver(app, dat);
+			sender.delivered(dat);
 		}
 		@Override
 		public abstract int loop(int myState) throws IOException;
@@ -122,29 +282,343 @@ public abstract class RTDBase implements Runnable {
 */
 	}
 
+	/**
+	 * Passes data to sink, one line at a time if the sender batched several
+	 * @param sink	destination of the data
+	 * @param dat	data from a packet
+	 */
+	protected static void deliver(ApplicationSink sink, String dat) {
+		if (dat == null || dat.indexOf('\n') < 0) {
+			sink.deliver(dat);
+			return;
+		}
+		for (int start = 0, end; ; start = end + 1) {
+			end = dat.indexOf('\n', start);
+			sink.deliver(dat.substring(start, end < 0 ? dat.length() : end));
+			if (end < 0) return;
+		}
+	}
+
+	/**
+	 * Selects the checksum algorithm for packets created from now on
+	 * @param checksum	algorithm
+	 */
+	public void setChecksum(Checksum checksum) {
+		this.checksum = checksum;
+	}
+
+	/**
+	 * Sends data delivered by receiver to sink instead of printing it
+	 * @param sink	destination of delivered data
+	 */
+	public void setApplicationSink(ApplicationSink sink) {
+		this.app = sink;
+	}
+
+	/**
+	 * Reports sender and receiver events to listener, e.g. a TraceListener
+	 * @param listener	listener for events
+	 */
+	public void setEventListener(RdtEventListener listener) {
+		this.listener = listener;
+		this.events = metrics == null ? listener : RdtEventListener.both(listener, metrics);
+	}
+
+	/**
+	 * Records counters, latencies and state residency of this simulation in metrics,
+	 * alongside any event listener. Must be called before run, after useRingChannels
+	 * and any other change of channel.
+	 * @param metrics	registry for this simulation only, or null to stop recording
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+		for (Channel c : new Channel[] {forward, backward}) {
+			if (c instanceof UChannel) ((UChannel)c).setMetrics(metrics);
+			if (c instanceof RingChannel) ((RingChannel)c).setMetrics(metrics);
+		}
+		setStates(metrics);
+		setEventListener(listener);
+	}
+	/**
+	 * Gives each state machine its residency record in metrics, as machines "sender"
+	 * and "receiver"
+	 * @param metrics	registry of the simulation, or null to stop recording
+	 */
+	protected void setStates(Metrics metrics) {
+		if (sender != null) sender.setStates(metrics == null ? null : metrics.machine("sender"));
+		if (receiver != null) receiver.setStates(metrics == null ? null : metrics.machine("receiver"));
+	}
+
+	/**
+	 * Lets controller limit the packets a windowed sender (RDTGBN, RDTSR) keeps in
+	 * flight; other senders ignore it. Must be called before run.
+	 * @param controller	new controller for this simulation only, or null for a fixed window
+	 */
+	public void setCongestionController(CongestionController controller) {
+		this.congestion = controller;
+	}
+
+	/**
+	 * Makes the sender pack several app lines into one packet, joined by '\n', and the
+	 * receiver split them apart again. A packet is sent when the next line would take
+	 * it past mtu bytes, or when no further line arrives within linger milliseconds;
+	 * a line longer than mtu travels alone. Must be called before run.
+	 * @param mtu		largest number of data bytes in a packet; 0 for one line per packet
+	 * @param linger	milliseconds to wait for more lines before sending a packet
+	 */
+	public void setBatching(int mtu, int linger) {
+		if (mtu < 0 || mtu > MAX_MTU || linger < 0) throw new IllegalArgumentException("need 0 <= mtu <= " + MAX_MTU + " and 0 <= linger");
+		this.batchMtu = mtu;
+		this.batchLinger = linger;
+	}
+	/**
+	 * Makes a windowed receiver (RDTGBN, RDTSR) send one cumulative ACK for every
+	 * `every` packets it receives in order, or `delay` milliseconds after the first of
+	 * them, whichever comes first; RDTDuplex holds back its standalone ACKs as long,
+	 * and other receivers, which stop and wait, ignore it.
+	 * Must be called before run.
+	 * @param every	number of packets covered by one ACK; 1 to ACK each packet
+	 * @param delay	longest time in milliseconds an ACK is delayed
+	 */
+	public void setDelayedAcks(int every, int delay) {
+		if (every < 1 || delay < 0) throw new IllegalArgumentException("need 1 <= every and 0 <= delay");
+		this.ackEvery = every;
+		this.ackDelay = delay;
+	}
+	/**
+	 * Creates the delayed ACK policy of a receiver, stopped with the simulation
+	 * @param flush	sends a cumulative ACK for every packet received in order so far
+	 * @return		the policy, or null if ACKs are not delayed
+	 */
+	protected synchronized DelayedAck delayedAck(Runnable flush) {
+		if (ackEvery <= 1) return null;
+		DelayedAck d = new DelayedAck(ackEvery, ackDelay, timers != null ? timers : TimerService.shared(), flush);
+		delayedAcks.add(d);
+		return d;
+	}
+	/**
+	 * @return	true if the receiver delivers each line once and in the order read, barring
+	 * 			corruption its checksum misses; latency is recorded only then
+	 */
+	protected boolean deliversInOrder() {
+		return true;
+	}
+	private static int lines(String dat) {
+		int n = 1;
+		for (int i = dat.indexOf('\n'); i >= 0; i = dat.indexOf('\n', i + 1)) n++;
+		return n;
+	}
+	private static int utf8Length(String s) {
+		int n = s.length();
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x800) n += Character.isSurrogate(c) ? 1 : 2;
+			else if (c >= 0x80) n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Replaces each channel that needs no timers with a RingChannel having the same
+	 * impairments, removing its relay thread. Channels with a LinkModel are kept.
+	 * Must be called before run.
+	 */
+	public void useRingChannels() {
+		forward = ring(forward);
+		backward = ring(backward);
+	}
+	private static Channel ring(Channel channel) {
+		if (!(channel instanceof UChannel) || channel instanceof TUChannel) return channel;
+		if (((UChannel)channel).getLinkModel() != null) return channel;
+		Impairment impairment = ((UChannel)channel).impairment;
+		return new RingChannel(impairment.pmunge, impairment.plose);
+	}
+
+	/**
+	 * Puts each UChannel, including TUChannels, in inline mode, so it applies loss and
+	 * munging in send and needs no relay thread. Must be called before run.
+	 */
+	public void useInlineChannels() {
+		if (forward instanceof UChannel) ((UChannel)forward).setInline(true);
+		if (backward instanceof UChannel) ((UChannel)backward).setInline(true);
+	}
+
+	/**
+	 * Gives each UChannel, including TUChannels, its own LinkModel with these parameters,
+	 * so frames take time to cross the channel. Must be called before run.
+	 * @param rate		transmission rate in bytes per second; 0 for no limit
+	 * @param delay		propagation delay in milliseconds
+	 * @param jitter	largest extra delay in milliseconds
+	 * @param queue		largest number of frames queued per channel; 0 for no limit
+	 */
+	public synchronized void setLinkModel(long rate, double delay, double jitter, int queue) {
+		for (Channel c : new Channel[] {forward, backward}) {
+			if (!(c instanceof UChannel)) continue;
+			LinkModel old = ((UChannel)c).getLinkModel();
+			if (old != null && links.remove(old)) old.shutdown();
+			LinkModel link = new LinkModel(rate, delay, jitter, queue);
+			if (timers != null) link.setTimerService(timers);
+			links.add(link);
+			((UChannel)c).setLinkModel(link);
+		}
+	}
+
+	/**
+	 * Seeds the random choices of each channel's Impairment and LinkModel, so runs with
+	 * the same seed lose, munge and delay the same frames, as far as thread timing lets
+	 * frames reach each channel in the same order. Must be called before run, after
+	 * useRingChannels and setLinkModel.
+	 * @param seed	seed of the simulation's random choices
+	 */
+	public void setSeed(long seed) {
+		seed(seed, forward, backward);
+	}
+	/**
+	 * Seeds the Impairment and LinkModel of each channel that has them
+	 * @param seed		seed from which each channel's seeds are drawn
+	 * @param channels	channels in a fixed order
+	 */
+	static void seed(long seed, Channel... channels) {
+		SplittableRandom seeds = new SplittableRandom(seed);
+		for (Channel c : channels) {
+			long impairmentSeed = seeds.nextLong(), linkSeed = seeds.nextLong();
+			if (c instanceof RingChannel) ((RingChannel)c).getImpairment().seed(impairmentSeed);
+			if (!(c instanceof UChannel)) continue;
+			((UChannel)c).impairment.seed(impairmentSeed);
+			if (((UChannel)c).getLinkModel() != null) ((UChannel)c).getLinkModel().seed(linkSeed);
+		}
+	}
+
+	/**
+	 * Runs sender, receiver, channels, pitcher and timers on threads from factory.
+	 * Must be called before run.
+	 * @param factory	source of threads, e.g. Threads.virtual()
+	 */
+	public void setThreadFactory(ThreadFactory factory) {
+		threadFactory = factory;
+		if (timers != null) timers.shutdown();
+		timers = factory == Threads.PLATFORM ? null : new TimerService(factory);
+		TimerService service = timers != null ? timers : TimerService.shared();
+		if (forward instanceof TUChannel) ((TUChannel)forward).setTimerService(service);
+		if (backward instanceof TUChannel) ((TUChannel)backward).setTimerService(service);
+		for (LinkModel link : links) link.setTimerService(service);
+	}
+	/**
+	 * Runs this simulation on virtual threads; pairs best with useRingChannels and
+	 * useInlineChannels, whose blocking does not pin a carrier thread.
+	 * Must be called before run.
+	 * @throws UnsupportedOperationException	if this JVM has no virtual threads
+	 */
+	public void useVirtualThreads() {
+		setThreadFactory(Threads.virtual());
+	}
+
+	/**
+	 * Applies the options returned by argParser, those of the channels and then those
+	 * of sender and receiver; -y also prints the metrics to standard error on exit.
+	 * Must be called before run.
+	 * @param pargs	result of argParser
+	 */
+	public void configure(Object[] pargs) {
+		configureChannels(pargs);
+		configureEndpoints(pargs);
+		if (metrics != null) metrics.dumpOnExit(System.err);
+	}
+	/**
+	 * Applies the -b, -g, -j, -q, -r, -i and -z options returned by argParser, which
+	 * model the channels. Must be called before run and configureEndpoints.
+	 * @param pargs	result of argParser
+	 */
+	public void configureChannels(Object[] pargs) {
+		if ((Long)pargs[9] > 0 || (Double)pargs[10] > 0 || (Double)pargs[11] > 0) {
+			setLinkModel((Long)pargs[9], (Double)pargs[10], (Double)pargs[11], (Integer)pargs[12]);
+		}
+		if ((Boolean)pargs[6]) useRingChannels();
+		if ((Boolean)pargs[7]) useInlineChannels();
+		if (pargs[18] != null) setSeed((Long)pargs[18]);
+	}
+	/**
+	 * Applies the -c, -k, -a, -e, -v and -y options returned by argParser, which
+	 * configure sender and receiver; -y gives the simulation a Metrics of its own.
+	 * Must be called before run.
+	 * @param pargs	result of argParser
+	 */
+	public void configureEndpoints(Object[] pargs) {
+		setChecksum((Checksum)pargs[5]);
+		if (pargs[13] != null) setCongestionController(CongestionController.create((String)pargs[13]));
+		if ((Integer)pargs[14] > 0) setBatching((Integer)pargs[14], (Integer)pargs[15]);
+		if ((Integer)pargs[16] > 1) setDelayedAcks((Integer)pargs[16], (Integer)pargs[17]);
+		if ((Boolean)pargs[8]) useVirtualThreads();
+		if ((Boolean)pargs[19]) setMetrics(new Metrics());
+	}
+
+	/**
+	 * Replaces the sender's data input, e.g. with a generated workload
+	 * @param in	source of lines for sender
+	 */
+	public void setAppInput(BufferedReader in) {
+		sender.appIn = in;
+	}
+
 	/**
 	 * Starts threads in forward, backward, sender, receiver and sp.
 	 */
 	@Override
-	public void run() {
-		if (forward != null) new Thread(forward).start();
-		if (backward != null) new Thread(backward).start();
-		if (sender != null) new Thread(sender).start();
-		if (receiver != null) new Thread(receiver).start();
-		if (sp != null) new Thread(sp).start();
+	public synchronized void run() {
+		if (forward != null && forward.needsThread()) start(forward);
+		if (backward != null && backward.needsThread()) start(backward);
+		start(sender);
+		start(receiver);
+		start(sp);
+	}
+	/**
+	 * Runs r on a thread from threadFactory, interrupted by stop
+	 * @param r	task to run; ignored if null
+	 */
+	protected void start(Runnable r) {
+		if (r == null) return;
+		Thread t = threadFactory.newThread(r);
+		threads.add(t);
+		t.start();
+	}
+	/**
+	 * Stops the simulation by interrupting the threads started by run
+	 * and shutting down its timers and links
+	 */
+	public synchronized void stop() {
+		for (Thread t : threads) t.interrupt();
+		threads.clear();
+		for (DelayedAck d : delayedAcks) d.stop();
+		delayedAcks.clear();
+		if (timers != null) timers.shutdown();
+		for (LinkModel link : links) link.shutdown();
+		links.clear();
 	}
 	/**
 	 * Universal argument parser for all simulators
 	 * 
 	 * @param prog	Simulation program name
 	 * @param args	Arguments passed to main
-	 * @return		Array containing -m, -l, -t and -f argument values
+	 * @return		Array containing -m, -l, -t, -f, -w, -c, -r, -i, -v, -b, -g, -j, -q and -k argument values,
+	 * 				then the mtu and linger of -a, the count and delay of -e, -z and -y
 	 */
 	public static Object[] argParser(String prog, String args[]) {
-		Object[] ans = new Object[4];
+		Object[] ans = new Object[20];
 		ans[0] = ans[1] = 0.0;
 		ans[2] = 0;
 		ans[3] = null;
+		ans[4] = 8;
+		ans[5] = Checksum.INTERNET;
+		ans[6] = ans[7] = ans[8] = false;
+		ans[9] = 0L;
+		ans[10] = ans[11] = 0.0;
+		ans[12] = 0;
+		ans[13] = null;
+		ans[14] = ans[15] = 0;
+		ans[16] = 1;
+		ans[17] = 0;
+		ans[18] = null;
+		ans[19] = false;
 		int idx = 0;
 		try {
 			while (idx < args.length) {
@@ -161,11 +635,60 @@ public abstract class RTDBase implements Runnable {
 				case "-f":
 					ans[3] = args[++idx];
 					break;
+				case "-w":
+					ans[4] = Integer.parseInt(args[++idx]);
+					break;
+				case "-c":
+					ans[5] = Checksum.forName(args[++idx]);
+					break;
+				case "-r":
+					ans[6] = true;
+					break;
+				case "-i":
+					ans[7] = true;
+					break;
+				case "-v":
+					ans[8] = true;
+					break;
+				case "-b":
+					ans[9] = Long.parseLong(args[++idx]);
+					break;
+				case "-g":
+					ans[10] = Double.parseDouble(args[++idx]);
+					break;
+				case "-j":
+					ans[11] = Double.parseDouble(args[++idx]);
+					break;
+				case "-q":
+					ans[12] = Integer.parseInt(args[++idx]);
+					break;
+				case "-k":
+					ans[13] = args[++idx];
+					CongestionController.create((String)ans[13]);
+					break;
+				case "-a":
+					String[] batching = args[++idx].split(",");
+					ans[14] = Integer.parseInt(batching[0]);
+					ans[15] = batching.length > 1 ? Integer.parseInt(batching[1]) : 1;
+					if ((Integer)ans[14] < 0 || (Integer)ans[14] > MAX_MTU || (Integer)ans[15] < 0) throw new IllegalArgumentException();
+					break;
+				case "-e":
+					String[] acks = args[++idx].split(",");
+					ans[16] = Integer.parseInt(acks[0]);
+					ans[17] = acks.length > 1 ? Integer.parseInt(acks[1]) : 10;
+					if ((Integer)ans[16] < 1 || (Integer)ans[17] < 0) throw new IllegalArgumentException();
+					break;
+				case "-z":
+					ans[18] = Long.parseLong(args[++idx]);
+					break;
+				case "-y":
+					ans[19] = true;
+					break;
 				}
 				idx++;
 			}
 		} catch (Exception ex) {
-			throw new RuntimeException(String.format("Usage: java %s [-m pmunge][-l ploss][-t timeout][-f file]", prog));
+			throw new RuntimeException(String.format("Usage: java %s [-m pmunge][-l ploss][-t timeout][-f file][-w window][-c internet|crc32c|adler32][-r][-i][-v][-b rate][-g delay][-j jitter][-q queue][-k reno][-a mtu[,linger]][-e acks[,delay]][-z seed][-y]", prog));
 		}
 
 		return ans;
@@ -0,0 +1,158 @@
+package TCP;
+/**
+ * Receives the events of a simulation's sender and receiver state machines.
+ * Every method defaults to doing nothing, so a listener overrides only the events it
+ * needs and NONE costs nothing. Methods are called on the sender's or receiver's own
+ * thread. Packets are passed as the protocol holds them and render themselves with
+ * toString; RDTGBN and RDTSR reuse theirs, so a listener must not keep them.
+ * from and to are the state machine's states before and after the event.
+ * @author rms
+ *
+ */
+public interface RdtEventListener {
+	/**
+	 * Listener ignoring every event; the default
+	 */
+	RdtEventListener NONE = new RdtEventListener() {};
+
+	/**
+	 * Which state machine an event comes from
+	 */
+	enum Side {SENDER, RECEIVER}
+
+	/**
+	 * @param first		listener called first
+	 * @param second	listener called second
+	 * @return			listener passing each event to first and then to second
+	 */
+	static RdtEventListener both(RdtEventListener first, RdtEventListener second) {
+		if (first == NONE) return second;
+		if (second == NONE) return first;
+		return new RdtEventListener() {
+			@Override
+			public RdtEventListener named(String name) {
+				return both(first.named(name), second.named(name));
+			}
+			@Override
+			public void sent(int from, int to, TracedPacket packet) {
+				first.sent(from, to, packet);
+				second.sent(from, to, packet);
+			}
+			@Override
+			public void retransmitted(int state, TracedPacket packet) {
+				first.retransmitted(state, packet);
+				second.retransmitted(state, packet);
+			}
+			@Override
+			public void received(Side side, int state, TracedPacket packet) {
+				first.received(side, state, packet);
+				second.received(side, state, packet);
+			}
+			@Override
+			public void acked(int from, int to, TracedPacket ack) {
+				first.acked(from, to, ack);
+				second.acked(from, to, ack);
+			}
+			@Override
+			public void corrupt(Side side, int from, int to, TracedPacket packet) {
+				first.corrupt(side, from, to, packet);
+				second.corrupt(side, from, to, packet);
+			}
+			@Override
+			public void duplicate(Side side, int from, int to, TracedPacket packet, boolean resending) {
+				first.duplicate(side, from, to, packet, resending);
+				second.duplicate(side, from, to, packet, resending);
+			}
+			@Override
+			public void delivered(int from, int to, TracedPacket packet) {
+				first.delivered(from, to, packet);
+				second.delivered(from, to, packet);
+			}
+			@Override
+			public void replied(int state, TracedPacket reply) {
+				first.replied(state, reply);
+				second.replied(state, reply);
+			}
+			@Override
+			public void timeout(int from, int to, int key) {
+				first.timeout(from, to, key);
+				second.timeout(from, to, key);
+			}
+			@Override
+			public void rto(int state, int rto) {
+				first.rto(state, rto);
+				second.rto(state, rto);
+			}
+		};
+	}
+
+	/**
+	 * Returns the listener for the events of one of several machines that play the same
+	 * part, e.g. the endpoints A and B of RDTDuplex, so they can be told apart
+	 * @param name	name of the machine
+	 * @return		listener for that machine; this one unless it tells machines apart
+	 */
+	default RdtEventListener named(String name) {
+		return this;
+	}
+	/**
+	 * Sender sent a packet carrying new data
+	 * @param packet	packet sent
+	 */
+	default void sent(int from, int to, TracedPacket packet) {}
+	/**
+	 * Sender sent a packet again
+	 * @param state		sender's state
+	 * @param packet	packet sent
+	 */
+	default void retransmitted(int state, TracedPacket packet) {}
+	/**
+	 * A packet arrived, before it is checked
+	 * @param side		SENDER for acknowledgements, RECEIVER for data
+	 * @param state		state it arrived in
+	 * @param packet	packet received
+	 */
+	default void received(Side side, int state, TracedPacket packet) {}
+	/**
+	 * Sender accepted an acknowledgement for data in flight
+	 * @param ack	acknowledgement
+	 */
+	default void acked(int from, int to, TracedPacket ack) {}
+	/**
+	 * A packet failed its checksum
+	 * @param side		SENDER for acknowledgements, RECEIVER for data
+	 * @param packet	packet discarded
+	 */
+	default void corrupt(Side side, int from, int to, TracedPacket packet) {}
+	/**
+	 * A packet was already handled: data delivered before, or an acknowledgement for
+	 * data no longer in flight
+	 * @param side		SENDER for acknowledgements, RECEIVER for data
+	 * @param packet	packet discarded
+	 * @param resending	true if the sender answers it by sending its packet again, as
+	 * 					RDT22 and RDT30 do, or by a fast retransmit; always false for data
+	 */
+	default void duplicate(Side side, int from, int to, TracedPacket packet, boolean resending) {}
+	/**
+	 * Receiver passed a packet's data to the application
+	 * @param packet	packet delivered
+	 */
+	default void delivered(int from, int to, TracedPacket packet) {}
+	/**
+	 * Receiver answered with an acknowledgement
+	 * @param state	receiver's state
+	 * @param reply	ACK or NAK sent
+	 */
+	default void replied(int state, TracedPacket reply) {}
+	/**
+	 * Sender's timer expired
+	 * @param key	timer key; TUChannel.TIMER for a sender's single timer
+	 */
+	default void timeout(int from, int to, int key) {}
+	/**
+	 * Sender's retransmission timeout was recomputed, after a round-trip sample or a timeout
+	 * @param state	sender's state
+	 * @param rto	new timeout in milliseconds
+	 */
+	default void rto(int state, int rto) {}
+}
@@ -0,0 +1,192 @@
+package TCP;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Channel implementation passing frames through a bounded lock-free ring buffer.
+ * send applies the channel's Impairment and copies the frame into the next free
+ * slot; receive copies it out. There is no relay thread and no lock: each side
+ * publishes its position with a single volatile write, spins briefly when the ring
+ * is full or empty, and then parks until the other side moves.
+ * A RingChannel has one sending thread and one receiving thread, as in every simulator.
+ * @author rms
+ *
+ */
+public class RingChannel implements Channel {
+	/**
+	 * Default number of slots
+	 */
+	public static final int CAPACITY = 1024;
+	private static final int SPINS = 128;
+
+	private final Impairment impairment;
+	private final byte[][] slots;
+	private final int[] lengths;
+	private final int mask;
+	/**
+	 * Number of frames received; written only by the receiving thread
+	 */
+	private final AtomicLong head = new AtomicLong();
+	/**
+	 * Number of frames sent; written only by the sending thread
+	 */
+	private final AtomicLong tail = new AtomicLong();
+	private volatile Thread sleepingSender, sleepingReceiver;
+	private volatile Metrics metrics;
+	private final byte[] encoded = new byte[UChannel.MAX_FRAME];
+
+	/**
+	 * Constructs a RingChannel with bit errors, packet loss and CAPACITY slots
+	 * @param pmunge	bit error probability
+	 * @param plose		lost packet probability
+	 */
+	public RingChannel(double pmunge, double plose) {
+		this(new Impairment(pmunge, plose), CAPACITY);
+	}
+	/**
+	 * Constructs a RingChannel
+	 * @param impairment	errors applied to frames
+	 * @param capacity		number of slots; rounded up to a power of 2
+	 */
+	public RingChannel(Impairment impairment, int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.impairment = impairment;
+		slots = new byte[size][];
+		lengths = new int[size];
+		mask = size - 1;
+		for (int i = 0; i < size; i++) slots[i] = new byte[256];
+	}
+
+	/**
+	 * @return	errors applied to frames
+	 */
+	public Impairment getImpairment() {
+		return impairment;
+	}
+
+	/**
+	 * Counts the frames sent, lost and munged from now on in metrics
+	 * @param metrics	counters of the simulation; null to stop counting
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public void send(String s) {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		sendFrame(b, 0, b.length);
+	}
+
+	public void send(PacketType packet) {
+		send(packet.serialize());
+	}
+
+	public void send(ByteBuffer frame) {
+		int len = frame.remaining();
+		if (frame.hasArray()) {
+			sendFrame(frame.array(), frame.arrayOffset() + frame.position(), len);
+		} else {
+			frame.duplicate().get(encoded, 0, len);
+			sendFrame(encoded, 0, len);
+		}
+		frame.position(frame.limit());
+	}
+
+	private void sendFrame(byte[] b, int off, int len) {
+		if (len > UChannel.MAX_FRAME) throw new IllegalArgumentException("frame of " + len + " bytes exceeds " + UChannel.MAX_FRAME);
+		Metrics metrics = this.metrics;
+		if (metrics != null) metrics.count(Metrics.Counter.SENT);
+		FlightEvents.sent(this, len);
+		if (impairment.lose()) {
+			if (metrics != null) metrics.count(Metrics.Counter.LOST);
+			FlightEvents.dropped(this, len, "lost");
+			return;
+		}
+		long t = tail.get();
+		for (int spins = 0; t - head.get() > mask; spins++) {
+			if (spins < SPINS) {
+				Thread.onSpinWait();
+				continue;
+			}
+			sleepingSender = Thread.currentThread();
+			if (t - head.get() > mask) LockSupport.park(this);
+			sleepingSender = null;
+			// a stopped simulation drops what it is sending, as UChannel does
+			if (Thread.currentThread().isInterrupted()) return;
+		}
+		int i = (int)t & mask;
+		if (slots[i].length < len) slots[i] = new byte[Math.max(len, 2 * slots[i].length)];
+		System.arraycopy(b, off, slots[i], 0, len);
+		int altered = impairment.munge(slots[i], 0, len);
+		if (altered > 0) {
+			if (metrics != null) metrics.count(Metrics.Counter.MUNGED);
+			FlightEvents.munged(this, len, altered);
+		}
+		lengths[i] = len;
+		tail.set(t + 1);
+		Thread receiver = sleepingReceiver;
+		if (receiver != null) LockSupport.unpark(receiver);
+	}
+
+	/**
+	 * Waits for a frame
+	 * @return	index of the frame's slot
+	 * @throws InterruptedIOException	if interrupted while waiting
+	 */
+	private int take() throws InterruptedIOException {
+		long h = head.get();
+		for (int spins = 0; h == tail.get(); spins++) {
+			if (spins < SPINS) {
+				Thread.onSpinWait();
+				continue;
+			}
+			sleepingReceiver = Thread.currentThread();
+			if (h == tail.get()) LockSupport.park(this);
+			sleepingReceiver = null;
+			if (Thread.interrupted()) throw new InterruptedIOException();
+		}
+		return (int)h & mask;
+	}
+	/**
+	 * Frees the slot of the frame returned by take
+	 */
+	private void release() {
+		head.set(head.get() + 1);
+		Thread sender = sleepingSender;
+		if (sender != null) LockSupport.unpark(sender);
+	}
+
+	public String receive() throws IOException {
+		int i = take();
+		String s = new String(slots[i], 0, lengths[i], StandardCharsets.UTF_8);
+		release();
+		return s;
+	}
+
+	public int receive(ByteBuffer dst) throws IOException {
+		int i = take(), len = lengths[i];
+		if (len > dst.capacity()) {
+			release();
+			throw new IOException("frame of " + len + " bytes exceeds buffer capacity " + dst.capacity());
+		}
+		dst.clear();
+		dst.put(slots[i], 0, len).flip();
+		release();
+		return len;
+	}
+
+	/**
+	 * A RingChannel needs no thread; returns immediately
+	 */
+	@Override
+	public void run() {
+	}
+	@Override
+	public boolean needsThread() {
+		return false;
+	}
+}
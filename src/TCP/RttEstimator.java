@@ -0,0 +1,109 @@
+package TCP;
+/**
+ * Retransmission timeout computed from measured round-trip times, as in TCP
+ * (Jacobson's algorithm, RFC 6298): a smoothed round-trip time SRTT and its mean
+ * deviation RTTVAR are updated from each sample, and RTO = SRTT + max(G, 4 RTTVAR),
+ * kept between a minimum and a maximum. G is the 1 ms granularity of TUChannel timers.
+ * A packet that was sent more than once gives no sample, since its ACK may answer
+ * any of the copies (Karn's rule). Each timeout doubles the RTO until the packet is
+ * acknowledged; RFC 6298 keeps the doubled RTO until the next sample, but under heavy
+ * munging most packets are resent and samples are rare, so the RTO would only grow.
+ * The sender calls sent when it first sends a packet, retransmitted or timedOut when
+ * it sends it again, and acked when the packet is acknowledged.
+ * @author rms
+ *
+ */
+public class RttEstimator {
+	private static final double ALPHA = 1.0 / 8, BETA = 1.0 / 4;
+	private static final int K = 4;
+	private static final double G = 1;
+
+	private final int min, max;
+	private double srtt = -1, rttvar;
+	/**
+	 * RTO from the samples, and RTO after backing off
+	 */
+	private int base, rto;
+	private long sentAt;
+	private boolean timing;
+
+	/**
+	 * Constructs an RttEstimator with no samples
+	 * @param initial	RTO in milliseconds until the first sample
+	 * @param min		smallest RTO in milliseconds
+	 * @param max		largest RTO in milliseconds
+	 */
+	public RttEstimator(int initial, int min, int max) {
+		if (min < 1 || max < min) throw new IllegalArgumentException("need 1 <= min <= max");
+		this.min = min;
+		this.max = max;
+		this.base = this.rto = clamp(initial);
+	}
+
+	/**
+	 * Starts timing a packet sent for the first time
+	 */
+	public synchronized void sent() {
+		sentAt = System.nanoTime();
+		timing = true;
+	}
+	/**
+	 * Notes that the packet being timed was sent again, so its ACK gives no sample
+	 */
+	public synchronized void retransmitted() {
+		timing = false;
+	}
+	/**
+	 * Notes that the packet's timer expired: doubles the RTO, and the packet, which
+	 * is about to be sent again, gives no sample
+	 */
+	public synchronized void timedOut() {
+		timing = false;
+		rto = clamp(2L * rto);
+	}
+	/**
+	 * Takes a sample from the packet's acknowledgement unless it was sent more than once,
+	 * and ends any backoff
+	 * @return	true if the RTO may have changed
+	 */
+	public synchronized boolean acked() {
+		if (!timing) {
+			boolean backedOff = rto != base;
+			rto = base;
+			return backedOff;
+		}
+		timing = false;
+		sample((System.nanoTime() - sentAt) / 1e6);
+		return true;
+	}
+	/**
+	 * Updates SRTT, RTTVAR and RTO from a round-trip time
+	 * @param rtt	measured round-trip time in milliseconds
+	 */
+	public synchronized void sample(double rtt) {
+		if (srtt < 0) {
+			srtt = rtt;
+			rttvar = rtt / 2;
+		} else {
+			rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rtt);
+			srtt = (1 - ALPHA) * srtt + ALPHA * rtt;
+		}
+		base = rto = clamp((long)Math.ceil(srtt + Math.max(G, K * rttvar)));
+	}
+	private int clamp(long ms) {
+		return (int)Math.max(min, Math.min(max, ms));
+	}
+
+	/**
+	 * @return	current retransmission timeout in milliseconds
+	 */
+	public synchronized int getRto() {return rto;}
+	/**
+	 * @return	smoothed round-trip time in milliseconds; -1 before the first sample
+	 */
+	public synchronized double getSrtt() {return srtt;}
+	/**
+	 * @return	round-trip time variation in milliseconds
+	 */
+	public synchronized double getRttvar() {return rttvar;}
+}
@@ -0,0 +1,232 @@
+package TCP;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Impaired link shared by many simulations (sessions). Every frame a session sends
+ * crosses one of the link's two channels, forward or backward, behind a 2-byte
+ * session id; a demultiplexer thread per direction strips the id and delivers the
+ * frame to the session's own channel, where its sender or receiver reads it as usual.
+ * Loss and munging happen once, on the link, and may hit the session id: a frame
+ * whose id names no session is dropped, and one whose id names another session
+ * is delivered there and normally rejected by its checksum. A frame arriving while
+ * its session's channel is full is dropped too, as a full link queue drops it, so
+ * one slow or stopped session never holds up delivery to the others.
+ * A session's own channels must be UChannels, including TUChannels; attach puts
+ * them in inline mode with no impairment of their own applied.
+ * @author rms
+ *
+ */
+public class SharedLink {
+	/**
+	 * Number of bytes of session id in front of each frame
+	 */
+	public static final int HEADER = 2;
+	private final Direction forward, backward;
+	private final List<Thread> threads = new ArrayList<>();
+
+	/**
+	 * Constructs a SharedLink over two channels
+	 * @param forward	channel carrying the sessions' data packets
+	 * @param backward	channel carrying the sessions' replies
+	 */
+	public SharedLink(Channel forward, Channel backward) {
+		this.forward = new Direction(forward);
+		this.backward = new Direction(backward);
+	}
+
+	/**
+	 * Makes rdt a session of this link by replacing its channels with endpoints on the
+	 * link. Must be called after rdt is otherwise configured and before it runs.
+	 * @param rdt	simulation whose forward and backward channels are UChannels
+	 * @return		session id
+	 * @throws IllegalArgumentException	if a channel of rdt is not a UChannel
+	 */
+	public synchronized int attach(RTDBase rdt) {
+		if (!(rdt.forward instanceof UChannel) || !(rdt.backward instanceof UChannel)) {
+			throw new IllegalArgumentException("sessions of a SharedLink need UChannels");
+		}
+		int id = forward.sessions.size();
+		if (id > 0xFFFF) throw new IllegalStateException("too many sessions");
+		rdt.forward = forward.endpoint(id, (UChannel)rdt.forward);
+		rdt.backward = backward.endpoint(id, (UChannel)rdt.backward);
+		return id;
+	}
+
+	/**
+	 * @return	number of sessions attached
+	 */
+	public synchronized int sessions() {
+		return forward.sessions.size();
+	}
+
+	/**
+	 * @return	number of frames, in both directions, whose session id was munged into
+	 * 			one that names no session
+	 */
+	public long misrouted() {
+		return forward.misrouted.get() + backward.misrouted.get();
+	}
+	/**
+	 * @return	number of frames, in both directions, dropped because their session's
+	 * 			channel had no room for them
+	 */
+	public long dropped() {
+		return forward.dropped.get() + backward.dropped.get();
+	}
+
+	/**
+	 * Starts the demultiplexers, and the link's channels if they need threads
+	 * @param factory	source of the threads
+	 */
+	public synchronized void start(ThreadFactory factory) {
+		for (Direction d : new Direction[] {forward, backward}) {
+			if (d.link.needsThread()) start(factory, d.link);
+			start(factory, d);
+		}
+	}
+	private void start(ThreadFactory factory, Runnable r) {
+		Thread t = factory.newThread(r);
+		threads.add(t);
+		t.start();
+	}
+	/**
+	 * Stops the threads started by start
+	 */
+	public synchronized void stop() {
+		for (Thread t : threads) t.interrupt();
+		threads.clear();
+	}
+
+	/**
+	 * One direction of the link and its demultiplexer
+	 */
+	private static class Direction implements Runnable {
+		final Channel link;
+		final List<UChannel> sessions = new ArrayList<>();
+		final AtomicLong misrouted = new AtomicLong(), dropped = new AtomicLong();
+		private volatile UChannel[] table = new UChannel[0];
+
+		Direction(Channel link) {
+			this.link = link;
+		}
+		Endpoint endpoint(int id, UChannel local) {
+			local.setInline(true);
+			sessions.add(local);
+			table = sessions.toArray(new UChannel[0]);
+			return new Endpoint(this, id, local);
+		}
+		/**
+		 * Sends a frame on the link; senders of all sessions take turns
+		 */
+		synchronized void send(ByteBuffer frame) {
+			link.send(frame);
+		}
+		/**
+		 * Reads frames from the link and delivers each to its session until interrupted,
+		 * dropping those its session has no room for rather than waiting
+		 */
+		@Override
+		public void run() {
+			ByteBuffer frame = ByteBuffer.allocate(UChannel.MAX_FRAME);
+			byte[] b = frame.array();
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					int len = link.receive(frame);
+					if (len < 0) return;
+					if (len < HEADER) continue;
+					int id = ((b[0] & 0xFF) << 8) | (b[1] & 0xFF);
+					UChannel[] t = table;
+					if (id >= t.length) {
+						misrouted.incrementAndGet();
+						continue;
+					}
+					if (!t[id].canArrive(len - HEADER)) {
+						dropped.incrementAndGet();
+						FlightEvents.dropped(t[id], len - HEADER, "session full");
+						continue;
+					}
+					System.arraycopy(b, HEADER, b, 0, len - HEADER);
+					try {
+						t[id].deliver(b, len - HEADER);
+					} catch (InterruptedIOException e) {
+						throw e;
+					} catch (IOException e) {
+						// the session has been stopped; its frames are dropped
+					}
+				}
+			} catch (InterruptedIOException e) {
+				return;
+			} catch (IOException e) {
+				if (!Thread.currentThread().isInterrupted()) e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * A session's end of one direction: send puts the session id in front of the frame
+	 * and sends it on the link; receive reads the session's own channel
+	 */
+	static class Endpoint implements Channel {
+		private final Direction direction;
+		private final UChannel local;
+		private final ByteBuffer out = ByteBuffer.allocate(UChannel.MAX_FRAME);
+
+		Endpoint(Direction direction, int id, UChannel local) {
+			this.direction = direction;
+			this.local = local;
+			out.putShort(0, (short)id);
+		}
+		public void send(String s) {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			send(b, 0, b.length);
+		}
+		public void send(PacketType packet) {
+			send(packet.serialize());
+		}
+		public void send(ByteBuffer frame) {
+			int len = frame.remaining();
+			check(len);
+			synchronized (out) {
+				out.clear().position(HEADER);
+				out.put(frame).flip();
+				direction.send(out);
+			}
+		}
+		private void send(byte[] b, int off, int len) {
+			check(len);
+			synchronized (out) {
+				out.clear().position(HEADER);
+				out.put(b, off, len).flip();
+				direction.send(out);
+			}
+		}
+		private static void check(int len) {
+			if (len > UChannel.MAX_FRAME - HEADER) {
+				throw new IllegalArgumentException("frame of " + len + " bytes exceeds " + (UChannel.MAX_FRAME - HEADER));
+			}
+		}
+		public String receive() throws IOException {
+			return local.receive();
+		}
+		public int receive(ByteBuffer dst) throws IOException {
+			return local.receive(dst);
+		}
+		/**
+		 * An Endpoint needs no thread; returns immediately
+		 */
+		@Override
+		public void run() {
+		}
+		@Override
+		public boolean needsThread() {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package TCP;
+/**
+ * Decides which duplicate ACKs a stop-and-wait sender answers by resending, for RDT30
+ * and its event-driven version EventRdt.StopAndWait.
+ * A duplicate ACK normally means the receiver got corrupt data, and the packet is
+ * resent at once. But every copy of a packet draws a reply, so copies still unanswered
+ * when the sender moves on, such as one resent on a timeout that came too soon, draw
+ * ACKs for the previous packet later; that many duplicate ACKs are ignored, or every
+ * packet from then on would be sent twice.
+ * The sender cannot tell a lost copy from one whose reply is still coming, so it
+ * counts lost copies as replies to come: after a loss, a real duplicate ACK reporting
+ * corrupt data is ignored too, and that packet waits a full RTO to be resent. This
+ * costs one RTO per such coincidence, where resending on stale ACKs costs a copy of
+ * every packet for the rest of the run.
+ * A StaleReplies belongs to one sender and is used on its thread only.
+ * @author rms
+ *
+ */
+public class StaleReplies {
+	/**
+	 * Copies of the packet sent, replies to them received, and ACKs for the previous
+	 * packet still to come
+	 */
+	private int copies, replies, stale;
+
+	/**
+	 * The sender sent a new packet
+	 */
+	public void sent() {
+		copies = 1;
+		replies = 0;
+	}
+	/**
+	 * The sender sent its packet again
+	 */
+	public void resent() {
+		copies++;
+	}
+	/**
+	 * A corrupt reply arrived, answering one copy
+	 */
+	public void corrupt() {
+		replies++;
+	}
+	/**
+	 * The packet was acknowledged; its copies not yet answered will draw stale ACKs
+	 */
+	public void acked() {
+		stale = copies - replies - 1;
+	}
+	/**
+	 * An ACK for the previous packet arrived
+	 * @return	true if the sender should resend its packet; false if the ACK answers a
+	 * 			copy of the previous packet and is ignored
+	 */
+	public boolean duplicate() {
+		if (stale > 0) {
+			stale--;
+			return false;
+		}
+		replies++;
+		return true;
+	}
+	/**
+	 * @return	copies of the packet sent so far
+	 */
+	public int copies() {
+		return copies;
+	}
+}
@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.PipedReader;
 import java.io.PipedWriter;
 import java.io.PrintWriter;
+import java.util.concurrent.ThreadFactory;
 /**
  * Reads a text file and "pitches" one line at a time to a reader.
  * Repeats from the beginning when end-of-file is reached
@@ -62,7 +63,14 @@ public class StringPitcher implements Runnable {
 	 * Creates and starts a Thread to run this StringPitcher
 	 */
 	public void start() {
-		new Thread(this).start();
+		start(Threads.PLATFORM);
+	}
+	/**
+	 * Creates and starts a Thread from factory to run this StringPitcher
+	 * @param factory	source of the thread, e.g. Threads.virtual()
+	 */
+	public void start(ThreadFactory factory) {
+		factory.newThread(this).start();
 	}
 	
 	/**
@@ -0,0 +1,227 @@
+package TCP;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a grid of simulations, every combination of protocol, pmunge, ploss, timeout
+ * and seed, in parallel on a ForkJoinPool with one worker per core.
+ * Each point is an EventRdt simulation in virtual time: it owns its EventSim, links
+ * and random source, prints nothing and never blocks, so points run independently
+ * and a worker is never idle while points remain.
+ * Results are kept in grid order and written as one CSV with a typed column per
+ * field, the columns of EventRdt, so the file is the same whatever the parallelism;
+ * the wall-clock time taken goes only to the summary.
+ * To run:  SweepRunner [-p RDT30,RDTGBN][-m pmunge,...][-l ploss,...][-t timeout,...][-s seed,...|first-last]
+ *                      [-n lines][-d seconds][-u threads][-f corpus][-o file.csv][-w window][-c checksum]
+ *                      [-b rate][-g delay][-j jitter][-q queue][-k reno]
+ * Defaults are as for EventRdt, with 1,000 lines per point and one thread per core.
+ * A summary of the sweep, with its wall-clock time, goes to standard error.
+ * @author rms
+ *
+ */
+public class SweepRunner {
+	private final String[] protocols;
+	private final double[] pmunge, plost;
+	private final int[] timeouts;
+	private final long[] seeds;
+	private final Object[] options;
+	private final String[] corpus;
+	private final int lines;
+	private final double seconds;
+
+	/**
+	 * Constructs a sweep over every combination of the listed values
+	 * @param protocols	names in EventRdt.PROTOCOLS
+	 * @param pmunge	probabilities of character errors
+	 * @param plost		probabilities of packet loss
+	 * @param timeouts	sender timeouts in milliseconds
+	 * @param seeds		seeds of the simulations' random choices
+	 * @param options	options returned by RTDBase.argParser
+	 * @param corpus	lines sent, repeated as often as needed
+	 * @param lines		number of lines sent by each simulation
+	 * @param seconds	virtual time limit of each simulation
+	 */
+	public SweepRunner(String[] protocols, double[] pmunge, double[] plost, int[] timeouts, long[] seeds,
+			Object[] options, String[] corpus, int lines, double seconds) {
+		for (String p : protocols) if (!EventRdt.PROTOCOLS.contains(p)) throw new IllegalArgumentException(p);
+		this.protocols = protocols;
+		this.pmunge = pmunge;
+		this.plost = plost;
+		this.timeouts = timeouts;
+		this.seeds = seeds;
+		this.options = options;
+		this.corpus = corpus;
+		this.lines = lines;
+		this.seconds = seconds;
+	}
+
+	/**
+	 * @return	number of points in the grid
+	 */
+	public int size() {
+		return protocols.length * pmunge.length * plost.length * timeouts.length * seeds.length;
+	}
+
+	/**
+	 * Runs every point of the grid
+	 * @param pool	pool running the simulations
+	 * @return		results in grid order: protocol, then pmunge, ploss, timeout and seed
+	 */
+	public EventRdt.Result[] run(ForkJoinPool pool) {
+		EventRdt.Result[] results = new EventRdt.Result[size()];
+		pool.invoke(new Points(results, 0, results.length));
+		return results;
+	}
+	/**
+	 * Runs point i of the grid, counting in grid order
+	 */
+	private EventRdt.Result point(int i) {
+		long seed = seeds[i % seeds.length];
+		i /= seeds.length;
+		int timeout = timeouts[i % timeouts.length];
+		i /= timeouts.length;
+		double l = plost[i % plost.length];
+		i /= plost.length;
+		double m = pmunge[i % pmunge.length];
+		i /= pmunge.length;
+		return EventRdt.simulate(protocols[i], m, l, timeout, seed, options, corpus, lines, seconds);
+	}
+
+	/**
+	 * Task running the points from lo to hi, split in halves down to single points, so
+	 * idle workers steal work until the last point is taken
+	 */
+	private class Points extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final EventRdt.Result[] results;
+		private final int lo, hi;
+		Points(EventRdt.Result[] results, int lo, int hi) {
+			this.results = results;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		@Override
+		protected void compute() {
+			if (hi - lo == 1) {
+				results[lo] = point(lo);
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new Points(results, lo, mid), new Points(results, mid, hi));
+		}
+	}
+
+	private static double[] doubles(String list) {
+		return Arrays.stream(list.split(",")).mapToDouble(Double::parseDouble).toArray();
+	}
+	private static int[] ints(String list) {
+		return Arrays.stream(list.split(",")).mapToInt(Integer::parseInt).toArray();
+	}
+	/**
+	 * @param list	comma-separated numbers and ranges first-last
+	 * @return		every number listed
+	 */
+	private static long[] seeds(String list) {
+		List<Long> seeds = new ArrayList<>();
+		for (String item : list.split(",")) {
+			int dash = item.indexOf('-', 1);
+			if (dash < 0) {
+				seeds.add(Long.parseLong(item));
+				continue;
+			}
+			long first = Long.parseLong(item.substring(0, dash)), last = Long.parseLong(item.substring(dash + 1));
+			if (last < first) throw new IllegalArgumentException(item);
+			for (long s = first; s <= last; s++) seeds.add(s);
+		}
+		return seeds.stream().mapToLong(Long::longValue).toArray();
+	}
+
+	/**
+	 * Runs the sweep
+	 * @param args	see class description
+	 * @throws IOException	if the corpus or output cannot be opened
+	 */
+	public static void main(String[] args) throws IOException {
+		main("SweepRunner", args, 1000, Runtime.getRuntime().availableProcessors());
+	}
+	/**
+	 * Runs the sweep for SweepRunner and EventRdt, which differ only in their defaults
+	 * @param prog		name of the class run, for the usage message
+	 * @param args		see class description
+	 * @param lines		lines per point unless -n is given
+	 * @param threads	workers unless -u is given
+	 * @throws IOException	if the corpus or output cannot be opened
+	 */
+	static void main(String prog, String[] args, int lines, int threads) throws IOException {
+		String[] protocols = {"RDT30", "RDTGBN"};
+		double[] pmunge = {0.0}, plost = {0.0};
+		int[] timeouts = {200};
+		long[] seeds = {1};
+		double seconds = 3600;
+		String outFile = null;
+		Object[] options;
+		try {
+			List<String> rest = new ArrayList<>();
+			for (int idx = 0; idx < args.length; idx++) {
+				switch (args[idx]) {
+				case "-p": protocols = args[++idx].split(","); break;
+				case "-m": pmunge = doubles(args[++idx]); break;
+				case "-l": plost = doubles(args[++idx]); break;
+				case "-t": timeouts = ints(args[++idx]); break;
+				case "-s": seeds = seeds(args[++idx]); break;
+				case "-n": lines = Integer.parseInt(args[++idx]); break;
+				case "-d": seconds = Double.parseDouble(args[++idx]); break;
+				case "-u": threads = Integer.parseInt(args[++idx]); break;
+				case "-o": outFile = args[++idx]; break;
+				case "-f": case "-w": case "-c": case "-b": case "-g": case "-j": case "-q": case "-k":
+					rest.add(args[idx]);
+					rest.add(args[++idx]);
+					break;
+				default: throw new IllegalArgumentException(args[idx]);
+				}
+			}
+			if (threads < 1) throw new IllegalArgumentException("threads must be positive");
+			if (!rest.contains("-g")) {
+				rest.add("-g");
+				rest.add("10");
+			}
+			for (String p : protocols) if (!EventRdt.PROTOCOLS.contains(p)) throw new IllegalArgumentException(p);
+			options = RTDBase.argParser(prog, rest.toArray(new String[0]));
+		} catch (Exception ex) {
+			System.out.println("Usage: java " + prog + " [-p RDT30,RDTGBN][-m pmunge,...][-l ploss,...][-t timeout,...][-s seed,...|first-last][-n lines][-d seconds][-u threads][-f corpus][-o file.csv][-w window][-c checksum][-b rate][-g delay][-j jitter][-q queue][-k reno]");
+			return;
+		}
+		String[] corpus = options[3] == null ? ProtocolHarness.defaultCorpus()
+				: Files.readAllLines(new File(System.getenv("user.dir"), (String)options[3]).toPath(), StandardCharsets.UTF_8).toArray(new String[0]);
+		SweepRunner sweep = new SweepRunner(protocols, pmunge, plost, timeouts, seeds, options, corpus, lines, seconds);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long start = System.nanoTime();
+		EventRdt.Result[] results;
+		try {
+			results = sweep.run(pool);
+		} finally {
+			pool.shutdown();
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9, busy = 0;
+		for (EventRdt.Result r : results) busy += r.wall / 1e3;
+		PrintStream out = outFile == null ? System.out : new PrintStream(new FileOutputStream(outFile), false, "UTF-8");
+		try {
+			out.println(EventRdt.HEADER);
+			for (EventRdt.Result r : results) out.println(r);
+		} finally {
+			if (out != System.out) out.close();
+			else out.flush();
+		}
+		System.err.println(String.format("# %d simulations in %.2f s on %d threads; %.2f s of simulation, %.1fx parallel",
+				results.length, elapsed, threads, busy, busy / elapsed));
+	}
+}
@@ -3,106 +3,241 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
- * Implements an extension of UChannel with receiver timeout 
+ * Implements an extension of UChannel with receiver timeout.
+ * Frames leaving the channel are handed to the receiver through an in-process queue;
+ * an expiring timer posts a wake-up into the same queue, so a blocked receive
+ * returns as soon as the scheduler fires rather than on a polling interval.
+ * Timers started, fired and cancelled are reported as FlightEvents.
  * @author rms
  *
  */
 public class TUChannel extends UChannel {
-	private static int PORTNO = 8025;
-	private Socket insock, outsock;
-	private ServerSocket startSock;
-	private BufferedReader in;
-	private boolean timedOut = false, timerOn = false;
+	/**
+	 * Queue entry that wakes a blocked receive to look for expired timers
+	 */
+	private static final byte[] WAKE = new byte[0];
+	private static final int QUEUE = 1024;
+	/**
+	 * Frames waiting for receive, each prefixed with its 2-byte length
+	 */
+	private final BlockingQueue<byte[]> in = new ArrayBlockingQueue<byte[]>(QUEUE);
+	/**
+	 * Frame arrays already consumed by receive, reused by deliver
+	 */
+	private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<byte[]>(QUEUE);
+	/**
+	 * Key used by the single-timer methods startTimer(int) and stopTimer()
+	 */
+	public static final int TIMER = -1;
+	private volatile TimerService timers;
+	private final Map<Integer, Pending> running = new ConcurrentHashMap<Integer, Pending>();
+	private final Queue<Integer> expired = new ConcurrentLinkedQueue<Integer>();
 
 	public TUChannel(double pmunge, double plose) throws IOException {
+		this(pmunge, plose, TimerService.shared());
+	}
+
+	/**
+	 * Constructs a TUChannel whose timers run on the given TimerService
+	 * @param pmunge		bit error probability
+	 * @param plose			lost packet probability
+	 * @param timers		scheduler for this channel's timers
+	 * @throws IOException	for channel i/o errors
+	 */
+	public TUChannel(double pmunge, double plose, TimerService timers) throws IOException {
 		super(pmunge, plose);
-		startSock = new ServerSocket(PORTNO);
-		startSock.setReuseAddress(true);
-		new Thread(new Runnable(){
-			public void run() {
-				try {
-					outsock = startSock.accept();
-					OutputStream outr = outsock.getOutputStream();
-					startSock.close();
-					PrintWriter sout = new PrintWriter(new OutputStreamWriter(outr)); 
-					for (;;) {
-						String line;
-						while ((line = bin.readLine()) != null) {
-							sout.println(line);
-							sout.flush();
-						}
-					}
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}).start();
-		insock = new Socket("localhost", PORTNO);
-		insock.setSoTimeout(100);
-		in = new BufferedReader(new InputStreamReader(insock.getInputStream()));
+		this.timers = timers;
 	}
 	/**
-	 * If timer is running receive throws a TimedoutExpception at a fixed interval  
+	 * If no timer is running returns null; otherwise returns the next line or
+	 * throws a TimedOutException for the first timer that has expired
 	 */
 	public String receive() throws IOException {
+		byte[] frame = take();
+		if (frame == null) return null;
+		String s = new String(frame, 2, length(frame), StandardCharsets.UTF_8);
+		free.offer(frame);
+		return s;
+	}
+	/**
+	 * If no timer is running returns -1; otherwise receives the next frame into dst or
+	 * throws a TimedOutException for the first timer that has expired
+	 */
+	public int receive(ByteBuffer dst) throws IOException {
+		byte[] frame = take();
+		if (frame == null) return -1;
+		int len = length(frame);
+		free.offer(frame);
+		if (len > dst.capacity()) throw new IOException("frame of " + len + " bytes exceeds buffer capacity " + dst.capacity());
+		dst.clear();
+		dst.put(frame, 2, len).flip();
+		return len;
+	}
+	/**
+	 * Receives the next frame into dst as receive does, but waits whether or not a timer
+	 * is running, and returns 0 when woken by wake
+	 * @param dst	buffer receiving the frame
+	 * @return		number of bytes received, or 0 if woken
+	 * @throws IOException	if interrupted while waiting or dst is too small
+	 */
+	public int receiveOrWake(ByteBuffer dst) throws IOException {
+		byte[] frame = take(true);
+		if (frame == WAKE) return 0;
+		int len = length(frame);
+		free.offer(frame);
+		if (len > dst.capacity()) throw new IOException("frame of " + len + " bytes exceeds buffer capacity " + dst.capacity());
+		dst.clear();
+		dst.put(frame, 2, len).flip();
+		return len;
+	}
+	/**
+	 * Makes a receiveOrWake waiting on this channel, or the next one, return 0,
+	 * e.g. when the application has data for the receiving thread to send
+	 */
+	public void wake() {
+		in.offer(WAKE);
+	}
+	private byte[] take() throws IOException {
+		return take(false);
+	}
+	/**
+	 * Waits for the next frame or timeout
+	 * @param woken	true to wait even if no timer is running, and return WAKE on a wake-up
+	 * @return		next frame, or null if no timer is running
+	 * @throws IOException	if interrupted while waiting
+	 */
+	private byte[] take(boolean woken) throws IOException {
 		for (;;) {
-			try{
-				if (!isTimerOn()) return null;
-				if (isTimedOut()) {
-					setTimerOn(false);
-					throw new TimedOutException();
-				}
-				String line = in.readLine();
-				return line;
-			} catch (SocketTimeoutException ex) {
-				continue;
+			Integer key;
+			synchronized (this) {
+				key = expired.poll();
+				if (key == null && !woken && running.isEmpty()) return null;
 			}
+			if (key != null) throw new TimedOutException(key);
+			byte[] frame;
+			try {
+				frame = in.take();
+			} catch (InterruptedException ex) {
+				throw new InterruptedIOException();
+			}
+			if (frame != WAKE) return frame;
+			if (woken && expired.isEmpty()) return WAKE;
+		}
+	}
+	private static int length(byte[] frame) {
+		return ((frame[0] & 0xFF) << 8) | (frame[1] & 0xFF);
+	}
+	/**
+	 * Queues a copy of a frame that survived the channel for receive
+	 */
+	@Override
+	protected void deliver(byte[] frame, int len) throws IOException {
+		byte[] copy = free.poll();
+		if (copy == null || copy.length < len + 2) copy = new byte[Math.max(len + 2, 256)];
+		copy[0] = (byte)(len >>> 8);
+		copy[1] = (byte)len;
+		System.arraycopy(frame, 0, copy, 2, len);
+		try {
+			in.put(copy);
+		} catch (InterruptedException ex) {
+			throw new InterruptedIOException();
 		}
 	}
+	@Override
+	boolean canArrive(int len) {
+		return in.remainingCapacity() > 0;
+	}
+	/**
+	 * Moves this channel's timers to another TimerService; timers already running stay
+	 * where they are
+	 * @param timers	scheduler for timers started from now on
+	 */
+	public void setTimerService(TimerService timers) {
+		this.timers = timers;
+	}
+
 	/**
-	 * Turns off and disables timer
+	 * Turns off and disables all timers
 	 */
-	public void reset() {
-		setTimedOut(false); 
-		setTimerOn(false);
+	public synchronized void reset() {
+		for (Integer key : running.keySet()) stopTimer(key);
+		expired.clear();
 	}
 	/**
 	 * Turns off timer
 	 */
-	public void stopTimer() {setTimerOn(false);}
+	public void stopTimer() {stopTimer(TIMER);}
+	/**
+	 * Turns off the timer with the given key and discards its timeout if not yet received
+	 * @param key	timer key, normally a sequence number
+	 */
+	public synchronized void stopTimer(int key) {
+		Pending p = running.remove(key);
+		if (p != null) {
+			p.timeout.cancel();
+			FlightEvents.timerCancelled(this, key);
+		}
+		expired.remove(key);
+	}
 	/**
 	 * Starts timer; after delay milliseconds the Thread waiting on receive will 
 	 * catch a TimedoutException
 	 * @param delay	Number of milliseconds between TimedoutExceptions
 	 */
-	public void startTimer(int delay) {
-		setTimerOn(true);
-		setTimedOut(false);
-		new Thread(new Runnable() {
+	public void startTimer(int delay) {startTimer(TIMER, delay);}
+	/**
+	 * Starts or restarts the timer with the given key; after delay milliseconds the Thread
+	 * waiting on receive will catch a TimedOutException carrying key.
+	 * Restarting cancels the earlier timeout, which can then never fire.
+	 * @param key	timer key, normally a sequence number
+	 * @param delay	Number of milliseconds until timeout
+	 */
+	public synchronized void startTimer(int key, int delay) {
+		Pending p = new Pending();
+		Pending old = running.put(key, p);
+		if (old != null) {
+			old.timeout.cancel();
+			FlightEvents.timerCancelled(this, key);
+		}
+		expired.remove(key);
+		FlightEvents.timerStarted(this, key, delay);
+		p.timeout = timers.schedule(delay, new Runnable() {
 			public void run() {
-				try {
-					Thread.sleep(delay);
-				} catch (InterruptedException e) {}
-				setTimedOut(true);
+				synchronized (TUChannel.this) {
+					if (!running.remove(key, p)) return;
+					expired.add(key);
+				}
+				FlightEvents.timerFired(TUChannel.this, key);
+				in.offer(WAKE);
 			}
-		}).start();
+		});
 	}
 
-	private synchronized boolean isTimedOut() {return timedOut;}
-	private synchronized void setTimedOut(boolean timedOut) {this.timedOut = timedOut;}
-
-	private synchronized boolean isTimerOn() {return timerOn;}
-	private synchronized void setTimerOn(boolean timerOn) {this.timerOn = timerOn;}
+	/**
+	 * A running timer; identity distinguishes a restarted timer from the one it replaced
+	 */
+	private static class Pending {
+		TimerService.Timeout timeout;
+	}
 
-	public class TimedOutException extends RuntimeException {}
+	public class TimedOutException extends RuntimeException {
+		/**
+		 * Key of the timer that expired
+		 */
+		public final int key;
+		TimedOutException(int key) {this.key = key;}
+	}
 
 	public static void main(String[] args) throws IOException {
 		Object[] pargs;
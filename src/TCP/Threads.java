@@ -0,0 +1,52 @@
+package TCP;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Sources of threads for simulation actors: senders, receivers, channels, timers
+ * and pitchers. Platform threads are the default; virtual threads let one JVM run
+ * thousands of simulations at once.
+ * Virtual threads block cheaply only in RingChannel, inline channels and timers;
+ * UChannel pipes wait inside synchronized methods, which pins a virtual thread's carrier.
+ * @author rms
+ *
+ */
+public final class Threads {
+	/**
+	 * Creates platform threads
+	 */
+	public static final ThreadFactory PLATFORM = r -> new Thread(r);
+	private static ThreadFactory virtual = null;
+
+	private Threads() {}
+
+	/**
+	 * Thread.ofVirtual() is Java 21 API; it is looked up reflectively so the project
+	 * still builds and runs on Java 11.
+	 * @return	factory creating virtual threads
+	 * @throws UnsupportedOperationException	if this JVM has no virtual threads
+	 */
+	public static synchronized ThreadFactory virtual() {
+		if (virtual == null) {
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				virtual = (ThreadFactory)Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				Throwable cause = e instanceof InvocationTargetException ? e.getCause() : e;
+				throw new UnsupportedOperationException("virtual threads need Java 21 or later; running " + System.getProperty("java.version"), cause);
+			}
+		}
+		return virtual;
+	}
+	/**
+	 * @return	true if virtual() can create virtual threads on this JVM
+	 */
+	public static boolean hasVirtual() {
+		try {
+			virtual();
+			return true;
+		} catch (UnsupportedOperationException e) {
+			return false;
+		}
+	}
+}
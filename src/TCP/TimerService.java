@@ -0,0 +1,106 @@
+package TCP;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs timeouts for any number of channels on a single scheduler thread.
+ * Cancelled timeouts are removed from the queue immediately, so thousands of
+ * concurrent timers cost one heap entry each and no thread of their own.
+ * @author rms
+ *
+ */
+public class TimerService {
+	private static TimerService shared = null;
+	private final ScheduledThreadPoolExecutor scheduler;
+
+	/**
+	 * @return	the TimerService shared by all channels that are not given their own
+	 */
+	public static synchronized TimerService shared() {
+		if (shared == null) shared = new TimerService(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "TimerService");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		return shared;
+	}
+
+	/**
+	 * Constructs a TimerService whose single scheduler thread comes from factory
+	 * @param factory	creates the scheduler thread
+	 */
+	public TimerService(ThreadFactory factory) {
+		scheduler = new ScheduledThreadPoolExecutor(1, factory);
+		scheduler.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Schedules task to run once after delay milliseconds
+	 * @param delay	milliseconds until task runs
+	 * @param task	action run on the scheduler thread; must not block
+	 * @return		handle that can cancel the timeout
+	 */
+	public Timeout schedule(long delay, Runnable task) {
+		Timeout timeout = new Timeout(task);
+		timeout.future = scheduler.schedule(timeout, delay, TimeUnit.MILLISECONDS);
+		return timeout;
+	}
+
+	/**
+	 * Schedules task to run once after delay nanoseconds
+	 * @param delay	nanoseconds until task runs
+	 * @param task	action run on the scheduler thread; must not block
+	 * @return		handle that can cancel the timeout
+	 */
+	public Timeout scheduleNanos(long delay, Runnable task) {
+		Timeout timeout = new Timeout(task);
+		timeout.future = scheduler.schedule(timeout, delay, TimeUnit.NANOSECONDS);
+		return timeout;
+	}
+
+	/**
+	 * Stops the scheduler thread; pending timeouts never fire
+	 */
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Handle for a scheduled task; fires at most once and never after cancel returns true
+	 * @author rms
+	 *
+	 */
+	public static class Timeout implements Runnable {
+		private static final int PENDING = 0, FIRED = 1, CANCELLED = 2;
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		private final Runnable task;
+		private volatile ScheduledFuture<?> future;
+
+		private Timeout(Runnable task) {this.task = task;}
+
+		/**
+		 * Cancels this timeout
+		 * @return	true if the task had not fired and now never will
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(PENDING, CANCELLED)) return false;
+			ScheduledFuture<?> f = future;
+			if (f != null) f.cancel(false);
+			return true;
+		}
+		/**
+		 * @return	true if the task has run
+		 */
+		public boolean isExpired() {return state.get() == FIRED;}
+
+		@Override
+		public void run() {
+			if (state.compareAndSet(PENDING, FIRED)) task.run();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package TCP;
+import java.io.PrintStream;
+
+/**
+ * Prints the simulators' trace of every sender and receiver event, one line per event.
+ * The lines differ from those the simulators printed before they had listeners: where
+ * they printed one line for a decision, e.g.
+ *    **Sender(1->1): timeout; resending ***
+ *   	 **Receiver(0->1): ok 0 data; replying ACK/0 **
+ * the trace now prints the event and the packet sent in answer on lines of their own:
+ *    **Sender(1->1): timeout **
+ *    **Sender(1): resending hello 0 (fdbb/fdbb) **
+ *   	 **Receiver(0->1): ok data **
+ *   	 **Receiver(0): replying ACK 0 (8c73/8c73) **
+ * A duplicate acknowledgement is reported as resent or ignored, as the sender decided.
+ * @author rms
+ *
+ */
+public class TraceListener implements RdtEventListener {
+	private final PrintStream out;
+	/**
+	 * Name following "Sender" and "Receiver", with a leading space; empty if unnamed
+	 */
+	private final String name;
+
+	/**
+	 * Constructs a TraceListener printing to System.out
+	 */
+	public TraceListener() {
+		this(System.out);
+	}
+	/**
+	 * Constructs a TraceListener
+	 * @param out	stream receiving the trace
+	 */
+	public TraceListener(PrintStream out) {
+		this(out, "");
+	}
+	private TraceListener(PrintStream out, String name) {
+		this.out = out;
+		this.name = name;
+	}
+
+	/**
+	 * @return	TraceListener printing the machine's name after Sender and Receiver, e.g. "Sender A(0)"
+	 */
+	@Override
+	public RdtEventListener named(String name) {
+		return new TraceListener(out, " " + name);
+	}
+
+	@Override
+	public void sent(int from, int to, TracedPacket packet) {
+		out.printf("Sender%s(%d): %s\n", name, from, packet);
+		if (from != to) out.printf(" **Sender%s(%d->%d)\n", name, from, to);
+	}
+	@Override
+	public void retransmitted(int state, TracedPacket packet) {
+		out.printf(" **Sender%s(%d): resending %s **\n", name, state, packet);
+	}
+	@Override
+	public void received(Side side, int state, TracedPacket packet) {
+		if (side == Side.SENDER) out.printf(" **Sender%s(%d): %s **\n", name, state, packet);
+		else out.printf("\t **Receiver%s(%d): %s **\n", name, state, packet);
+	}
+	@Override
+	public void acked(int from, int to, TracedPacket ack) {
+		out.printf(" **Sender%s(%d->%d): acknowledged **\n", name, from, to);
+	}
+	@Override
+	public void corrupt(Side side, int from, int to, TracedPacket packet) {
+		if (side == Side.SENDER) out.printf(" **Sender%s(%d->%d): corrupt acknowledgement **\n", name, from, to);
+		else out.printf("\t **Receiver%s(%d->%d): corrupt data **\n", name, from, to);
+	}
+	@Override
+	public void duplicate(Side side, int from, int to, TracedPacket packet, boolean resending) {
+		if (side == Side.SENDER) out.printf(" **Sender%s(%d->%d): duplicate acknowledgement; %s **\n", name, from, to, resending ? "resending" : "ignoring");
+		else out.printf("\t **Receiver%s(%d->%d): duplicate packet; discarding **\n", name, from, to);
+	}
+	@Override
+	public void delivered(int from, int to, TracedPacket packet) {
+		out.printf("\t **Receiver%s(%d->%d): ok data **\n", name, from, to);
+	}
+	@Override
+	public void replied(int state, TracedPacket reply) {
+		out.printf("\t **Receiver%s(%d): replying %s **\n", name, state, reply);
+	}
+	@Override
+	public void timeout(int from, int to, int key) {
+		if (key == TUChannel.TIMER) out.printf(" **Sender%s(%d->%d): timeout **\n", name, from, to);
+		else out.printf(" **Sender%s(%d->%d): timeout of %d **\n", name, from, to, key);
+	}
+	@Override
+	public void rto(int state, int rto) {
+		out.printf(" **Sender%s(%d): timeout now %d ms **\n", name, state, rto);
+	}
+}
@@ -0,0 +1,13 @@
+package TCP;
+/**
+ * A packet as passed to an RdtEventListener: the text packets of RDT10 to RDT30 and
+ * the BinaryPacket of RDTGBN, RDTSR and RDTDuplex. toString gives its form in traces.
+ * @author rms
+ *
+ */
+public interface TracedPacket {
+	/**
+	 * @return	true if checksum does not match content.
+	 */
+	boolean isCorrupt();
+}
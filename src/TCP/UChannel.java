@@ -1,16 +1,29 @@
 package TCP;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadFactory;
 /**
  * Channel implementation for simulating bit errors and lost packets.
  * Does not support input timeouts.
+ * Data crosses the channel as length-prefixed binary frames, so payloads may contain
+ * any bytes including newlines; Strings travel as their UTF-8 encoding.
+ * By default a relay thread (run) applies loss and munging between send and receive;
+ * in inline mode send applies them itself and the channel needs no thread.
+ * With a LinkModel, frames first cross the modelled link and are then lost or
+ * munged as they arrive.
+ * Frames sent, lost and munged are reported as FlightEvents.
  * To run:  UChannel [-m pmunge][-l ploss][-f filename]
  * When supplied with a filename goes into automatic data feed
  * 
@@ -18,11 +31,23 @@ import java.io.PrintWriter;
  *
  */
 public class UChannel implements Channel {
+	/**
+	 * Largest frame, in bytes, the channel carries
+	 */
+	public static final int MAX_FRAME = 0xFFFF;
+	/**
+	 * Bytes each pipe holds before a writer blocks
+	 */
+	private static final int PIPE = 1024;
 	protected InputStream ins, inr;
 	protected OutputStream outs, outr;
-	protected double pmunge, plose;
-	private PrintWriter p;
-	protected BufferedReader bin;		
+	protected final Impairment impairment;
+	private DataOutputStream p, out;
+	protected DataInputStream bin;
+	private final byte[] sendBuf = new byte[MAX_FRAME], receiveBuf = new byte[MAX_FRAME], inlineBuf = new byte[MAX_FRAME];
+	private volatile boolean inline;
+	private volatile LinkModel link;
+	private volatile Metrics metrics;
 	/**
 	 * Constructs a UChannel with bit errors and packet loss
 	 * ploss	
@@ -31,62 +56,232 @@ public class UChannel implements Channel {
 	 * @throws IOException	for channel i/o errors
 	 */
 	public UChannel(double pmunge, double plose) throws IOException {
-		this.pmunge = pmunge;
-		this.plose = plose;
+		impairment = new Impairment(pmunge, plose);
 		initChannels();
-		p = new PrintWriter(outs);
-		bin = new BufferedReader(new InputStreamReader(inr));		
+		p = new DataOutputStream(outs);
+		out = new DataOutputStream(outr);
+		bin = new DataInputStream(inr);
 	}
 	
 	private void initChannels() throws IOException {
-		ins = new PipedInputStream(); 
-		inr = new PipedInputStream();
+		ins = new PipedInputStream(PIPE); 
+		inr = new PipedInputStream(PIPE);
 		outs = new PipedOutputStream((PipedInputStream)ins); 
 		outr = new PipedOutputStream((PipedInputStream)inr);
 	}
+	/**
+	 * Selects inline mode, in which send applies loss and munging and passes the frame
+	 * straight to deliver, saving the relay thread and a pipe hop per packet.
+	 * Must be called before the channel is used.
+	 * @param inline	true for inline mode
+	 */
+	public void setInline(boolean inline) {
+		this.inline = inline;
+	}
+	/**
+	 * Makes frames cross a link with the given rate, delay and queue before they are
+	 * impaired and delivered. Must be called before the channel is used.
+	 * @param link	model of the link, used by this channel only; null for instant delivery
+	 */
+	public void setLinkModel(LinkModel link) {
+		this.link = link;
+	}
+	/**
+	 * @return	model of the link, or null if frames are delivered at once
+	 */
+	public LinkModel getLinkModel() {
+		return link;
+	}
+	/**
+	 * Counts the frames sent, lost and munged from now on in metrics
+	 * @param metrics	counters of the simulation; null to stop counting
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+	@Override
+	public boolean needsThread() {
+		return !inline;
+	}
+
 	public void send(String s) {
-		p.println(s);
-		p.flush();
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		sendFrame(b, 0, b.length);
 	}
 	
 	public void send(PacketType packet) {
-		p.println(packet.serialize());
-		p.flush();
+		send(packet.serialize());
+	}
+
+	public synchronized void send(ByteBuffer frame) {
+		int len = frame.remaining();
+		if (frame.hasArray()) {
+			sendFrame(frame.array(), frame.arrayOffset() + frame.position(), len);
+			frame.position(frame.limit());
+		} else {
+			frame.get(sendBuf, 0, len);
+			sendFrame(sendBuf, 0, len);
+		}
+	}
+
+	private synchronized void sendFrame(byte[] b, int off, int len) {
+		if (len > MAX_FRAME) throw new IllegalArgumentException("frame of " + len + " bytes exceeds " + MAX_FRAME);
+		Metrics metrics = this.metrics;
+		if (metrics != null) metrics.count(Metrics.Counter.SENT);
+		FlightEvents.sent(this, len);
+		try {
+			if (inline) {
+				System.arraycopy(b, off, inlineBuf, 0, len);
+				transmit(inlineBuf, len);
+				return;
+			}
+			p.writeShort(len);
+			p.write(b, off, len);
+			p.flush();
+		} catch (InterruptedIOException e) {
+			// keep the interrupt, so a stopped simulation's thread sees it and exits
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			// the relay thread is gone when the simulation has been stopped
+			if (!Thread.currentThread().isInterrupted()) e.printStackTrace();
+		}
 	}
 
 	public String receive() throws IOException {
-		String s = bin.readLine();
-		return s;
+		int len;
+		try {
+			len = bin.readUnsignedShort();
+		} catch (EOFException e) {
+			return null;
+		}
+		byte[] b = new byte[len];
+		bin.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	public int receive(ByteBuffer dst) throws IOException {
+		int len;
+		try {
+			len = bin.readUnsignedShort();
+		} catch (EOFException e) {
+			return -1;
+		}
+		if (len > dst.capacity()) {
+			bin.readFully(receiveBuf, 0, len);
+			throw new IOException("frame of " + len + " bytes exceeds buffer capacity " + dst.capacity());
+		}
+		dst.clear();
+		if (dst.hasArray()) {
+			bin.readFully(dst.array(), dst.arrayOffset(), len);
+			dst.limit(len);
+		} else {
+			bin.readFully(receiveBuf, 0, len);
+			dst.put(receiveBuf, 0, len).flip();
+		}
+		return len;
 	}
 	/**
 	 * runs this UChannel in a new Thread
 	 */
 	public void start() {
-		new Thread(this).start();		
+		start(Threads.PLATFORM);
 	}
 	/**
-	 * Reads input data provided by send; introduces bit errors;
-	 * writes data to receive, or loses packet 
+	 * runs this UChannel in a Thread from factory
+	 * @param factory	source of the thread, e.g. Threads.virtual()
+	 */
+	public void start(ThreadFactory factory) {
+		factory.newThread(this).start();
+	}
+	/**
+	 * Reads frames provided by send; introduces byte errors;
+	 * writes frames to receive, or loses packet. Returns at once in inline mode.
 	 */
 	@Override
 	public void run() {
-		PrintWriter p = new PrintWriter(outr);
-		BufferedReader bin = new BufferedReader(new InputStreamReader(ins));
-		String s = null;
+		if (inline) return;
+		DataInputStream bin = new DataInputStream(ins);
+		byte[] buf = new byte[MAX_FRAME];
 		try {
-			while ((s = bin.readLine()) != null) {
-				StringBuffer buf = new StringBuffer(s);
-				if (Math.random() < plose) continue;
-				for (int i = 0; i < buf.length(); i++) {
-					if (Math.random() < pmunge) buf.setCharAt(i, (char)(32+(int)Math.floor(94*Math.random())));
-				}
-				p.println(buf.toString());
-				p.flush();
+			for (;;) {
+				int len = bin.readUnsignedShort();
+				bin.readFully(buf, 0, len);
+				transmit(buf, len);
 			}
+		} catch (EOFException | InterruptedIOException e) {
+			return;
 		} catch (IOException e) {
-			e.printStackTrace();
+			// the receiver is gone when the simulation has been stopped
+			if (!Thread.currentThread().isInterrupted()) e.printStackTrace();
 		}
 	}
+	/**
+	 * Puts a frame on the link, or impairs and delivers it at once if there is no LinkModel
+	 */
+	private void transmit(byte[] frame, int len) throws IOException {
+		LinkModel link = this.link;
+		if (link != null) {
+			link.carry(frame, len, this);
+			return;
+		}
+		if (impair(frame, len)) deliver(frame, len);
+	}
+	/**
+	 * Tells the LinkModel whether a frame can arrive now; deliver may still block on a
+	 * frame larger than the pipe, but only while the receiver is reading
+	 * @param len	number of bytes in the frame
+	 * @return		true if deliver would not wait for the receiver to catch up
+	 */
+	boolean canArrive(int len) {
+		try {
+			int queued = inr.available();
+			return queued == 0 || PIPE - queued >= len + 2;
+		} catch (IOException e) {
+			// a closed pipe never fills; deliver reports the failure
+			return true;
+		}
+	}
+	/**
+	 * Impairs and delivers a frame arriving from the LinkModel; runs on the link's
+	 * scheduler, once canArrive has said the frame can be delivered without waiting
+	 */
+	void arrive(byte[] frame, int len) {
+		if (!impair(frame, len)) return;
+		try {
+			deliver(frame, len);
+		} catch (IOException e) {
+			// the receiver is gone when the simulation has been stopped
+		}
+	}
+	/**
+	 * Loses or munges a frame, counting what happens to it and reporting it to FlightEvents
+	 * @return	false if the frame is lost
+	 */
+	private boolean impair(byte[] frame, int len) {
+		Metrics metrics = this.metrics;
+		if (impairment.lose()) {
+			if (metrics != null) metrics.count(Metrics.Counter.LOST);
+			FlightEvents.dropped(this, len, "lost");
+			return false;
+		}
+		int altered = impairment.munge(frame, 0, len);
+		if (altered > 0) {
+			if (metrics != null) metrics.count(Metrics.Counter.MUNGED);
+			FlightEvents.munged(this, len, altered);
+		}
+		return true;
+	}
+	/**
+	 * Passes a frame that survived the channel on to receive
+	 * @param frame	frame content, possibly with altered bytes; reused after this returns
+	 * @param len	number of bytes in frame
+	 * @throws IOException	if the frame cannot be passed on
+	 */
+	protected void deliver(byte[] frame, int len) throws IOException {
+		out.writeShort(len);
+		out.write(frame, 0, len);
+		out.flush();
+	}
 		
 	public static void main(String[] args) throws IOException {
 		Object[] pargs;